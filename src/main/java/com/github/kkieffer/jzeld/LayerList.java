@@ -0,0 +1,381 @@
+
+package com.github.kkieffer.jzeld;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A list that holds the Z-plane order of items, first is top, last is bottom.  The items are kept in a balanced tree (a treap indexed
+ * by position), so getting, inserting, or removing at a position, and finding the position of an item, are logarithmic rather than linear.
+ * Iterating in order is linear, as with a linked list.  Items are compared by identity, and each item can only be held once.
+ *
+ * @author kkieffer
+ * @param <T> the type of item held in the list
+ */
+public class LayerList<T> extends AbstractList<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final class Node<T> {
+        T item;
+        Node<T> left, right, parent;
+        int size = 1;  //number of nodes in this subtree
+        final int priority = ThreadLocalRandom.current().nextInt();
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+
+    private transient Node<T> root;
+    private transient IdentityHashMap<T, Node<T>> nodes = new IdentityHashMap<>();
+
+    private transient Node<T> splitLeft, splitRight;  //results of the last split
+
+
+    public LayerList() {
+    }
+
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public T get(int index) {
+        return nodeAt(index).item;
+    }
+
+    @Override
+    public T set(int index, T item) {
+        Node<T> n = nodeAt(index);
+        if (n.item == item)
+            return item;
+
+        checkNew(item);
+        T old = n.item;
+        nodes.remove(old);
+        n.item = item;
+        nodes.put(item, n);
+        return old;
+    }
+
+    @Override
+    public void add(int index, T item) {
+        if (index < 0 || index > size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        checkNew(item);
+
+        Node<T> n = new Node<>(item);
+        nodes.put(item, n);
+
+        split(root, index);
+        Node<T> right = splitRight;
+        root = merge(merge(splitLeft, n), right);
+        root.parent = null;
+        splitLeft = splitRight = null;
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        Node<T> n = nodeAt(index);
+        removeNode(n);
+        return n.item;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Node<T> n = nodes.get(o);
+        if (n == null)
+            return false;
+        removeNode(n);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Node<T> n = nodes.get(o);
+        return n == null ? -1 : rank(n);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);  //items are only held once
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        nodes.clear();
+        modCount++;
+    }
+
+    /**
+     * Adds the item at the top (front) of the list
+     * @param item the item to add
+     */
+    public void addFirst(T item) {
+        add(0, item);
+    }
+
+    /**
+     * Adds the item at the bottom (end) of the list
+     * @param item the item to add
+     */
+    public void addLast(T item) {
+        add(size(), item);
+    }
+
+    /**
+     * Returns the item at the top (front) of the list
+     * @return the first item
+     * @throws NoSuchElementException if the list is empty
+     */
+    public T getFirst() {
+        if (root == null)
+            throw new NoSuchElementException();
+        return leftmost(root).item;
+    }
+
+    /**
+     * Returns the item at the bottom (end) of the list
+     * @return the last item
+     * @throws NoSuchElementException if the list is empty
+     */
+    public T getLast() {
+        if (root == null)
+            throw new NoSuchElementException();
+        return rightmost(root).item;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr(false);
+    }
+
+    /**
+     * Returns an iterator over the items from the bottom (end) of the list to the top
+     * @return the iterator
+     */
+    public Iterator<T> descendingIterator() {
+        return new Itr(true);
+    }
+
+
+    private class Itr implements Iterator<T> {
+
+        private final boolean descending;
+        private Node<T> next;
+        private Node<T> lastReturned;
+        private int expectedModCount = modCount;
+
+        Itr(boolean descending) {
+            this.descending = descending;
+            if (root != null)
+                next = descending ? rightmost(root) : leftmost(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next == null)
+                throw new NoSuchElementException();
+
+            lastReturned = next;
+            next = descending ? predecessor(next) : successor(next);
+            return lastReturned.item;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+
+            removeNode(lastReturned);  //the other nodes stay in the same order, so next is still valid
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+    }
+
+
+    private void checkNew(T item) {
+        if (item == null)
+            throw new IllegalArgumentException("Null items can't be held");
+        if (nodes.containsKey(item))
+            throw new IllegalArgumentException("Item is already in the list");
+    }
+
+    private Node<T> nodeAt(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        Node<T> n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < leftSize)
+                n = n.left;
+            else if (index == leftSize)
+                return n;
+            else {
+                index -= leftSize + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    //Position of the node, counting the nodes before it on the way up to the root
+    private int rank(Node<T> n) {
+        int r = size(n.left);
+        while (n.parent != null) {
+            if (n == n.parent.right)
+                r += size(n.parent.left) + 1;
+            n = n.parent;
+        }
+        return r;
+    }
+
+    private void removeNode(Node<T> n) {
+        nodes.remove(n.item);
+
+        Node<T> m = merge(n.left, n.right);
+        Node<T> p = n.parent;
+        if (m != null)
+            m.parent = p;
+
+        if (p == null)
+            root = m;
+        else if (p.left == n)
+            p.left = m;
+        else
+            p.right = m;
+
+        for (; p != null; p = p.parent)  //one less below each ancestor
+            p.size--;
+
+        n.left = n.right = n.parent = null;
+        modCount++;
+    }
+
+    private static int size(Node<?> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    //Recompute the size of the node and point its children back to it
+    private static <T> void update(Node<T> n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        if (n.left != null)
+            n.left.parent = n;
+        if (n.right != null)
+            n.right.parent = n;
+    }
+
+    //Split the subtree into the first count nodes (splitLeft) and the rest (splitRight)
+    private void split(Node<T> t, int count) {
+        if (t == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+
+        if (size(t.left) >= count) {
+            split(t.left, count);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        }
+        else {
+            split(t.right, count - size(t.left) - 1);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        }
+    }
+
+    //Join two subtrees, all of a before all of b, returning the new subtree root
+    private static <T> Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static <T> Node<T> leftmost(Node<T> n) {
+        while (n.left != null)
+            n = n.left;
+        return n;
+    }
+
+    private static <T> Node<T> rightmost(Node<T> n) {
+        while (n.right != null)
+            n = n.right;
+        return n;
+    }
+
+    private static <T> Node<T> successor(Node<T> n) {
+        if (n.right != null)
+            return leftmost(n.right);
+        while (n.parent != null && n == n.parent.right)
+            n = n.parent;
+        return n.parent;
+    }
+
+    private static <T> Node<T> predecessor(Node<T> n) {
+        if (n.left != null)
+            return rightmost(n.left);
+        while (n.parent != null && n == n.parent.left)
+            n = n.parent;
+        return n.parent;
+    }
+
+
+    //Only the items are saved, in order, the tree is rebuilt when read
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size());
+        for (T item : this)
+            out.writeObject(item);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        nodes = new IdentityHashMap<>();
+        int count = in.readInt();
+        for (int i=0; i<count; i++)
+            addLast((T)in.readObject());
+    }
+
+}
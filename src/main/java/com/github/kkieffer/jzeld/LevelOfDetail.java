@@ -0,0 +1,190 @@
+
+package com.github.kkieffer.jzeld;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.print.PrinterGraphics;
+
+/**
+ * Thresholds, in device pixels, below which elements are painted in a cheaper form.  When an element is small on the screen its
+ * outline is drawn solid rather than dashed or custom, gradients and textures are filled with their average color, shadows are
+ * skipped, and detailed paths drop their segments smaller than the flatness.  Text too small to read is drawn as bars.
+ *
+ * The ZCanvas passes the level of detail to the elements it paints as a rendering hint.  Elements painted without the hint, such as
+ * when printing or exporting, are painted at full detail.  A second hint marks painting done while the user manipulates the canvas,
+ * when elements are painted with speed rendering hints and no antialiasing, and a third marks painting for printing or export.
+ *
+ * @author kkieffer
+ */
+public class LevelOfDetail {
+
+    /**
+     * The rendering hint key, whose value is the LevelOfDetail to paint with, or null for full detail
+     */
+    public static final RenderingHints.Key KEY = new RenderingHints.Key(1) {
+        @Override
+        public boolean isCompatibleValue(Object val) {
+            return val == null || val instanceof LevelOfDetail;
+        }
+
+        @Override
+        public String toString() {
+            return "Level of detail";
+        }
+    };
+
+    /**
+     * The rendering hint key, whose value is Boolean.TRUE while the user is manipulating the canvas and elements should be painted
+     * for speed rather than quality, or null to paint for quality
+     */
+    public static final RenderingHints.Key INTERACTIVE_KEY = new RenderingHints.Key(2) {
+        @Override
+        public boolean isCompatibleValue(Object val) {
+            return val == null || val instanceof Boolean;
+        }
+
+        @Override
+        public String toString() {
+            return "Interactive painting";
+        }
+    };
+
+    /**
+     * The rendering hint key, whose value is Boolean.TRUE while printing or exporting, when elements may take the time to paint from
+     * their full resolution sources, or null when painting to the screen
+     */
+    public static final RenderingHints.Key OUTPUT_KEY = new RenderingHints.Key(3) {
+        @Override
+        public boolean isCompatibleValue(Object val) {
+            return val == null || val instanceof Boolean;
+        }
+
+        @Override
+        public String toString() {
+            return "Output painting";
+        }
+    };
+
+    /**
+     * The default thresholds, which only simplify elements small enough that the difference is hard to see
+     */
+    public static final LevelOfDetail DEFAULT = new LevelOfDetail(8.0, 4.0, 0.5);
+
+    private final double simplifyBelow;
+    private final double greekBelow;
+    private final double flatness;
+
+    /**
+     * Create the level of detail thresholds
+     * @param simplifyBelow elements whose width and height are both smaller than this many pixels are simplified, zero to never simplify
+     * @param greekBelow text whose font size is smaller than this many pixels is drawn as bars, zero to always draw the text
+     * @param flatness segments of simplified paths that span less than this many pixels are dropped
+     */
+    public LevelOfDetail(double simplifyBelow, double greekBelow, double flatness) {
+        if (simplifyBelow < 0 || greekBelow < 0 || flatness <= 0)
+            throw new IllegalArgumentException("Thresholds can't be negative and flatness must be positive");
+
+        this.simplifyBelow = simplifyBelow;
+        this.greekBelow = greekBelow;
+        this.flatness = flatness;
+    }
+
+    public double getSimplifyBelow() {
+        return simplifyBelow;
+    }
+
+    public double getGreekBelow() {
+        return greekBelow;
+    }
+
+    public double getFlatness() {
+        return flatness;
+    }
+
+    /**
+     * Get the level of detail set on the graphics context
+     * @param g the graphics context to paint on
+     * @return the level of detail, or null to paint at full detail
+     */
+    public static LevelOfDetail get(Graphics2D g) {
+        Object val = g.getRenderingHint(KEY);
+        return val instanceof LevelOfDetail ? (LevelOfDetail)val : null;
+    }
+
+    /**
+     * True if the graphics context is painting while the user manipulates the canvas, when speed matters more than quality
+     * @param g the graphics context to paint on
+     * @return true to paint for speed
+     */
+    public static boolean isInteractive(Graphics2D g) {
+        return Boolean.TRUE.equals(g.getRenderingHint(INTERACTIVE_KEY));
+    }
+
+    /**
+     * True if the graphics context is a printer, or is painting an export of the canvas
+     * @param g the graphics context to paint on
+     * @return true if painting for output rather than the screen
+     */
+    public static boolean isOutput(Graphics2D g) {
+        return g instanceof PrinterGraphics || Boolean.TRUE.equals(g.getRenderingHint(OUTPUT_KEY));
+    }
+
+    /**
+     * Set the rendering and antialiasing hints for painting an element, favoring speed while interactive and quality otherwise
+     * @param g the graphics context to paint on
+     */
+    public static void setQualityHints(Graphics2D g) {
+        if (isInteractive(g)) {
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        } else {
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+    }
+
+    /**
+     * Find the number of device pixels per pixel of the graphics context, averaging the horizontal and vertical scale
+     * @param g the graphics context
+     * @return the scale
+     */
+    public static double getDeviceScale(Graphics2D g) {
+        AffineTransform t = g.getTransform();
+        return Math.sqrt(Math.abs(t.getDeterminant()));
+    }
+
+    /**
+     * True if an element of this size should be painted in its simplified form
+     * @param g the graphics context, with the element's transform
+     * @param width the width of the element, in pixels of the graphics context
+     * @param height the height of the element, in pixels of the graphics context
+     * @return true to simplify
+     */
+    public boolean isSimplified(Graphics2D g, double width, double height) {
+        if (simplifyBelow == 0)
+            return false;
+        double scale = getDeviceScale(g);
+        return Math.abs(width) * scale < simplifyBelow && Math.abs(height) * scale < simplifyBelow;
+    }
+
+    /**
+     * True if text in a font of this size should be drawn as bars
+     * @param g the graphics context, with the element's transform
+     * @param fontSize the size of the font, in pixels of the graphics context
+     * @return true to draw bars
+     */
+    public boolean isGreeked(Graphics2D g, double fontSize) {
+        return greekBelow != 0 && fontSize * getDeviceScale(g) < greekBelow;
+    }
+
+    /**
+     * Get the span of the segments dropped from simplified paths
+     * @param g the graphics context, with the element's transform
+     * @return the flatness in pixels of the graphics context
+     */
+    public double getFlatness(Graphics2D g) {
+        return flatness / getDeviceScale(g);
+    }
+
+}
@@ -0,0 +1,390 @@
+
+package com.github.kkieffer.jzeld;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+/**
+ * An R-tree that indexes items by an axis-aligned bounding rectangle.  Items can be found by point or by intersecting region without
+ * checking every item, which is how the ZCanvas finds the elements under the mouse or inside a drag-select box.  Items are
+ * compared by identity, and each item can only be held once.
+ *
+ * @author kkieffer
+ * @param <T> the type of item held in the index
+ */
+public class SpatialIndex<T> {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = 6;
+
+    private static class Box {
+        double minX, minY, maxX, maxY;
+
+        final void setEmpty() {
+            minX = minY = Double.POSITIVE_INFINITY;
+            maxX = maxY = Double.NEGATIVE_INFINITY;
+        }
+
+        final void set(Box b) {
+            minX = b.minX;
+            minY = b.minY;
+            maxX = b.maxX;
+            maxY = b.maxY;
+        }
+
+        final void extend(Box b) {
+            minX = Math.min(minX, b.minX);
+            minY = Math.min(minY, b.minY);
+            maxX = Math.max(maxX, b.maxX);
+            maxY = Math.max(maxY, b.maxY);
+        }
+
+        final double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        final double unionArea(Box b) {
+            return (Math.max(maxX, b.maxX) - Math.min(minX, b.minX)) * (Math.max(maxY, b.maxY) - Math.min(minY, b.minY));
+        }
+
+        final boolean intersects(double x1, double y1, double x2, double y2) {
+            return minX <= x2 && maxX >= x1 && minY <= y2 && maxY >= y1;
+        }
+    }
+
+    private static final class Entry<T> extends Box {
+        final T item;
+        Node<T> leaf;
+
+        Entry(T item, Rectangle2D r) {
+            this.item = item;
+            minX = r.getMinX();
+            minY = r.getMinY();
+            maxX = r.getMaxX();
+            maxY = r.getMaxY();
+        }
+    }
+
+    private static final class Node<T> extends Box {
+        final boolean leaf;
+        Node<T> parent;
+        final ArrayList<Box> children = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+            setEmpty();
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(Box b) {
+            children.add(b);
+            if (leaf)
+                ((Entry<T>)b).leaf = this;
+            else
+                SpatialIndex.<T>asNode(b).parent = this;
+        }
+
+        void recalc() {
+            setEmpty();
+            for (Box b : children)
+                extend(b);
+        }
+    }
+
+    private Node<T> root = new Node<>(true);
+    private final ArrayDeque<Node<T>> queryStack = new ArrayDeque<>();  //reused by each query
+    private final IdentityHashMap<T, Entry<T>> entries = new IdentityHashMap<>();
+
+
+    /**
+     * Add an item to the index, or move it if it is already held
+     * @param item the item to add
+     * @param bounds the bounds of the item
+     */
+    public void put(T item, Rectangle2D bounds) {
+        Entry<T> existing = entries.get(item);
+        if (existing != null) {
+            if (existing.minX == bounds.getMinX() && existing.minY == bounds.getMinY() && existing.maxX == bounds.getMaxX() && existing.maxY == bounds.getMaxY())
+                return;  //no change
+            remove(item);
+        }
+
+        Entry<T> e = new Entry<>(item, bounds);
+        entries.put(item, e);
+        insert(e);
+    }
+
+    /**
+     * Remove an item from the index
+     * @param item the item to remove
+     * @return true if removed, false if the item was not in the index
+     */
+    public boolean remove(T item) {
+        Entry<T> e = entries.remove(item);
+        if (e == null)
+            return false;
+
+        Node<T> leaf = e.leaf;
+        leaf.children.remove(e);
+        condense(leaf);
+        return true;
+    }
+
+    /**
+     * True if the item is held in the index
+     * @param item the item to check
+     * @return
+     */
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    /**
+     * Returns the bounds the item was indexed with
+     * @param item the item to find
+     * @return the bounds, or null if the item is not in the index
+     */
+    public Rectangle2D getBounds(T item) {
+        Entry<T> e = entries.get(item);
+        if (e == null)
+            return null;
+        return new Rectangle2D.Double(e.minX, e.minY, e.maxX - e.minX, e.maxY - e.minY);
+    }
+
+    /**
+     * Return the number of items in the index
+     * @return
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all items from the index
+     */
+    public void clear() {
+        entries.clear();
+        root = new Node<>(true);
+    }
+
+    /**
+     * Finds all the items whose bounds intersect, or touch, the region
+     * @param <C> the type of collection to fill
+     * @param region the region to search
+     * @param results the collection to add found items to
+     * @return the results collection
+     */
+    public <C extends Collection<? super T>> C query(Rectangle2D region, C results) {
+        return query(region.getMinX(), region.getMinY(), region.getMaxX(), region.getMaxY(), results);
+    }
+
+    /**
+     * Finds all the items whose bounds contain the point
+     * @param <C> the type of collection to fill
+     * @param p the point to search
+     * @param results the collection to add found items to
+     * @return the results collection
+     */
+    public <C extends Collection<? super T>> C query(Point2D p, C results) {
+        return query(p.getX(), p.getY(), p.getX(), p.getY(), results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C extends Collection<? super T>> C query(double x1, double y1, double x2, double y2, C results) {
+
+        if (entries.isEmpty())
+            return results;
+
+        ArrayDeque<Node<T>> stack = queryStack;
+        stack.clear();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> n = stack.pop();
+            for (Box b : n.children) {
+                if (!b.intersects(x1, y1, x2, y2))
+                    continue;
+
+                if (n.leaf)
+                    results.add(((Entry<T>)b).item);
+                else
+                    stack.push(SpatialIndex.<T>asNode(b));
+            }
+        }
+        return results;
+    }
+
+
+    private void insert(Entry<T> e) {
+
+        //Descend to the leaf needing the least enlargement to hold the entry
+        Node<T> n = root;
+        while (!n.leaf) {
+            Node<T> best = null;
+            double bestEnlargement = Double.POSITIVE_INFINITY;
+            double bestArea = Double.POSITIVE_INFINITY;
+            for (Box b : n.children) {
+                double area = b.area();
+                double enlargement = b.unionArea(e) - area;
+                if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                    best = asNode(b);
+                }
+            }
+            n = best;
+        }
+
+        n.add(e);
+
+        //Walk back up, splitting any overflowing nodes and growing the bounds
+        while (n != null) {
+            if (n.children.size() > MAX_ENTRIES) {
+                Node<T> sibling = split(n);
+                if (n == root) {
+                    root = new Node<>(false);
+                    root.add(n);
+                    root.add(sibling);
+                    root.recalc();
+                    return;
+                }
+                n.parent.add(sibling);
+            }
+            else
+                n.extend(e);
+
+            n = n.parent;
+        }
+    }
+
+
+    //Inner nodes hold only nodes of the same element type
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T> asNode(Box b) {
+        return (Node<T>)b;
+    }
+    
+    //Quadratic split, moves about half the children of the node into a new sibling node, which is returned
+    private Node<T> split(Node<T> n) {
+
+        ArrayList<Box> remaining = new ArrayList<>(n.children);
+        n.children.clear();
+        Node<T> sibling = new Node<>(n.leaf);
+
+        //Pick the two children that would waste the most area if grouped together
+        int seed1 = 0;
+        int seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<remaining.size(); i++) {
+            for (int j=i+1; j<remaining.size(); j++) {
+                Box a = remaining.get(i);
+                Box b = remaining.get(j);
+                double waste = a.unionArea(b) - a.area() - b.area();
+                if (waste > worst) {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+
+        Box b2 = remaining.remove(seed2);  //seed2 > seed1, remove it first
+        Box b1 = remaining.remove(seed1);
+        n.add(b1);
+        n.set(b1);
+        sibling.add(b2);
+        sibling.set(b2);
+
+        while (!remaining.isEmpty()) {
+
+            //If one group needs all the rest to reach the minimum, give them to it
+            Node<T> fill = null;
+            if (n.children.size() + remaining.size() <= MIN_ENTRIES)
+                fill = n;
+            else if (sibling.children.size() + remaining.size() <= MIN_ENTRIES)
+                fill = sibling;
+
+            if (fill != null) {
+                for (Box b : remaining) {
+                    fill.add(b);
+                    fill.extend(b);
+                }
+                break;
+            }
+
+            //Pick the child with the strongest preference for one group
+            int next = 0;
+            double maxDiff = Double.NEGATIVE_INFINITY;
+            for (int i=0; i<remaining.size(); i++) {
+                Box b = remaining.get(i);
+                double diff = Math.abs((n.unionArea(b) - n.area()) - (sibling.unionArea(b) - sibling.area()));
+                if (diff > maxDiff) {
+                    maxDiff = diff;
+                    next = i;
+                }
+            }
+
+            Box b = remaining.remove(next);
+            double e1 = n.unionArea(b) - n.area();
+            double e2 = sibling.unionArea(b) - sibling.area();
+
+            Node<T> target;
+            if (e1 != e2)
+                target = e1 < e2 ? n : sibling;
+            else if (n.area() != sibling.area())
+                target = n.area() < sibling.area() ? n : sibling;
+            else
+                target = n.children.size() <= sibling.children.size() ? n : sibling;
+
+            target.add(b);
+            target.extend(b);
+        }
+
+        return sibling;
+    }
+
+
+    //After removal from the node, remove any underfull nodes up the tree and reinsert their entries
+    @SuppressWarnings("unchecked")
+    private void condense(Node<T> n) {
+
+        ArrayList<Entry<T>> orphans = new ArrayList<>();
+
+        while (n != root) {
+            Node<T> parent = n.parent;
+            if (n.children.size() < MIN_ENTRIES) {
+                parent.children.remove(n);
+                collectEntries(n, orphans);
+            }
+            else
+                n.recalc();
+            n = parent;
+        }
+        root.recalc();
+
+        //Shorten the tree if the root has only one child
+        while (!root.leaf && root.children.size() == 1) {
+            root = asNode(root.children.get(0));
+            root.parent = null;
+        }
+        if (!root.leaf && root.children.isEmpty())
+            root = new Node<>(true);
+
+        for (Entry<T> e : orphans)
+            insert(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectEntries(Node<T> n, ArrayList<Entry<T>> list) {
+        for (Box b : n.children) {
+            if (n.leaf)
+                list.add((Entry<T>)b);
+            else
+                collectEntries(SpatialIndex.<T>asNode(b), list);
+        }
+    }
+
+}
@@ -1,104 +1,438 @@
-
 package com.github.kkieffer.jzeld;
 
 import com.github.kkieffer.jzeld.element.ZElement;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Holds copies of the ZElement list on a stack for undo purposes.  Saving context pushes a copy onto the stack,
- * restoring pops the most recent from the stack.
+ * Holds the changes made to the ZElement list on a stack for undo purposes.  Only the elements that changed are copied: each undo step
+ * holds the before and after state of the changed elements, by UUID, and the Z-plane order if elements were added, removed, or reordered.
+ * The canvas reports changed elements and order changes as they happen.  Saving context closes the current step and pushes it to the
+ * stack, undoing pops the most recent step and returns the state to restore.
+ *
+ * Elements are recorded only when they report a change through ZElement.changed(), so every setter of saved state must call it.
+ * 
+ * A copy of the last saved state of every element is kept as the baseline, so that the before state of an element is available once it
+ * has already changed.  The baseline is copied at the first save after the history is reset, not on reset, so loading a scene does not
+ * copy it and a scene that is never edited never pays for it.  Changes reported before that first save are part of the starting state.
+ * Once built, the baseline costs one copy of every element on the canvas, held in memory; geometry and image pixels are shared with the
+ * elements rather than copied.  It is included in getMemoryUsage().
  * 
+ * Besides the stack depth, the history is bounded by an estimated memory budget.  Once the newest steps use more than the budget, older 
+ * steps are serialized and compressed in the background. Once the compressed steps pass the spill threshold, the oldest are written to a
+ * temporary file.  Compressed and spilled steps are restored when they are undone or redone.  Data shared between copies of elements, such
+ * as image pixels, is counted once, and not counted against the budget while the baseline holds it.  Compressed steps refer to such data
+ * rather than holding a serialized copy of it.
+ *
  * @author kkieffer
  */
 public class UndoStack {
 
-    private final int stackDepth;
-       
-    //History of all the ZElement changes, push each new revision to the stack, pop to undo
-    Deque<LinkedList<ZElement>> undoHistory = new ArrayDeque<>();
-    Deque<LinkedList<ZElement>> redoHistory = new ArrayDeque<>();
+    /**
+     * The element states and order to restore on undo or redo
+     */
+    static final class Change {
+
+        private final Map<UUID, ZElement> states;
+        private final ArrayList<UUID> order;
+
+        private Change(Map<UUID, ZElement> states, ArrayList<UUID> order) {
+            this.states = states;
+            this.order = order;
+        }
+
+        /**
+         * The state to restore for each changed element, by UUID.  The value is null if the element is not on the canvas in the restored
+         * state. The returned elements are held by the stack and must be copied before placing them on a canvas.
+         * @return
+         */
+        Map<UUID, ZElement> getStates() {
+            return Collections.unmodifiableMap(states);
+        }
+
+        /**
+         * The UUIDs of all the elements in the restored Z-plane order, top first
+         * @return the order, or null if the order is unchanged
+         */
+        ArrayList<UUID> getOrder() {
+            return order;
+        }
+    }
+
+    //One undoable change.  Held in memory, compressed in memory (packed), or compressed in the spill file (spilled)
+    private static final class Step {
+        HashMap<UUID, ZElement> before = new HashMap<>();  //null values for elements that were added
+        HashMap<UUID, ZElement> after = new HashMap<>();  //null values for elements that were removed
+        ArrayList<UUID> orderBefore;  //null if the order did not change
+        ArrayList<UUID> orderAfter;
+        
+        long estimate;  //estimated memory used when held in memory, not counting shared data
+        IdentityHashMap<Object, Long> shared = new IdentityHashMap<>();  //shared data held by the step and its size, when packed only that kept
+        byte[] packed;  //compressed form, when packed
+        ArrayList<Object> kept;  //shared data the compressed form refers to, when packed or spilled
+        long spillOffset = -1;  //position in the spill file, when spilled
+        int spillLength;
+        boolean unpackable = false;  //true if the elements could not be serialized, always held in memory
+        
+        boolean isHeld() {
+            return after != null;
+        }
+        
+        void findEstimate() {
+            estimate = 16L * ((orderBefore == null ? 0 : orderBefore.size()) + (orderAfter == null ? 0 : orderAfter.size()));
+            shared.clear();
+            for (ZElement e : before.values())
+                estimate += e == null ? 0 : findOwnEstimate(e, shared);
+            for (ZElement e : after.values())
+                estimate += e == null ? 0 : findOwnEstimate(e, shared);
+        }
+    }
+    
+    //Stands in for shared data in a packed step
+    private static final class SharedReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        
+        private SharedReference(int index) {
+            this.index = index;
+        }
+    }
+    
+    //Writes the shared data to keep as a reference to it, rather than serializing it
+    private static final class PackingOutputStream extends ObjectOutputStream {
+        private final Map<Object, Long> keep;
+        private final ArrayList<Object> kept = new ArrayList<>();
+        
+        private PackingOutputStream(OutputStream out, Map<Object, Long> keep) throws IOException {
+            super(out);
+            this.keep = keep;
+            enableReplaceObject(true);
+        }
+        
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (!keep.containsKey(obj))
+                return obj;
+            kept.add(obj);  //each object is replaced once, later references to it are written as back references
+            return new SharedReference(kept.size() - 1);
+        }
+    }
     
+    //Restores the shared data that was written as a reference
+    private static final class UnpackingInputStream extends ObjectInputStream {
+        private final ArrayList<Object> kept;
+        
+        private UnpackingInputStream(InputStream in, ArrayList<Object> kept) throws IOException {
+            super(in);
+            this.kept = kept;
+            enableResolveObject(true);
+        }
+        
+        @Override
+        protected Object resolveObject(Object obj) {
+            return obj instanceof SharedReference ? kept.get(((SharedReference)obj).index) : obj;
+        }
+    }
     
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    public static final long DEFAULT_SPILL_THRESHOLD = 32L * 1024 * 1024;
+
+    private static ExecutorService packer = null;  //compresses and spills steps in the background, created when first needed
+
+
+    private final int stackDepth;
+
+    //History of all the ZElement changes, push each new change to the stack, pop to undo
+    private final Deque<Step> undoHistory = new ArrayDeque<>();
+    private final Deque<Step> redoHistory = new ArrayDeque<>();
+
+    private final HashMap<UUID, ZElement> baseline = new HashMap<>();  //copy of each element as of the last saved step
+    private ArrayList<UUID> baselineOrder = new ArrayList<>();
+    private boolean baselineBuilt = false;  //false until the first save after a reset
+
+    private final Set<ZElement> changedElements = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //since the last saved step
+    private boolean orderChanged = false;
+
     private boolean suspend  = false;
     
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;  //estimated bytes of steps held in memory before older steps are compressed
+    private long spillThreshold = DEFAULT_SPILL_THRESHOLD;  //bytes of compressed steps held in memory before older steps are spilled
+    private File spillFile;
+    private RandomAccessFile spill;
+    private boolean packing = false;  //true while steps are being compressed or spilled in the background
+
 
     /**
      * Create the undo stack with the specified amount of history
-     * @param stackDepth 
+     * @param stackDepth
      */
     public UndoStack(int stackDepth) {
         if (stackDepth < 1)
             throw new IllegalArgumentException("Stack depth must be greater than zero");
         this.stackDepth = stackDepth;
     }
- 
+
     /**
-     * Copy the element list and push it to the undo stack
-     * @param ctx 
+     * Sets the memory limits of the history.  Steps beyond the memory budget are compressed in the background, and compressed steps beyond
+     * the spill threshold are written to a temporary file. 
+     * @param memoryBudget the estimated bytes the newest steps can use, uncompressed
+     * @param spillThreshold the bytes of compressed steps to keep in memory
      */
-    public void saveContext(LinkedList<ZElement> ctx) {
-        saveContext(ctx, true);
+    public synchronized void setMemoryBudget(long memoryBudget, long spillThreshold) {
+        if (memoryBudget < 0 || spillThreshold < 0)
+            throw new IllegalArgumentException("Memory budget and spill threshold cannot be negative");
+        this.memoryBudget = memoryBudget;
+        this.spillThreshold = spillThreshold;
+        enforceBudget();
     }
-
     
-    private LinkedList<ZElement> copyOf(LinkedList<ZElement> src) {
+    /**
+     * Estimates the memory used by the undo history, including the copies of the current elements, the steps held in memory, 
+     * and the compressed steps.  Spilled steps are not included.
+     * @return the estimated size in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long usage = 0;
+        IdentityHashMap<Object, Long> shared = new IdentityHashMap<>();
+        for (ZElement e : baseline.values())
+            usage += findOwnEstimate(e, shared);
         
-        LinkedList<ZElement> copy = new LinkedList<>();
-        Iterator<ZElement> it = src.iterator();
-        while (it.hasNext()) 
-            copy.addLast(it.next().copyOf(false));
+        for (Step s : getStepsOldestFirst()) {
+            if (s.isHeld())
+                usage += s.estimate;
+            else if (s.packed != null)
+                usage += s.packed.length;
+            shared.putAll(s.shared);
+        }
         
-        return copy;
+        for (long size : shared.values())  //once each, however many elements hold it
+            usage += size;
+        return usage;
     }
     
-    private void saveContext(LinkedList<ZElement> ctx, boolean clearRedo) {
+    /**
+     * Get the bytes of history that are spilled to the temporary file
+     * @return the size in bytes
+     */
+    public synchronized long getSpilledUsage() {
+        long usage = 0;
+        for (Step s : getStepsOldestFirst()) {
+            if (s.spillOffset >= 0)
+                usage += s.spillLength;
+        }
+        return usage;
+    }
+    
+    /**
+     * Clear all history.  The element list as of the next save is the starting state, and is copied then.
+     * @param ctx the current element list
+     */
+    public synchronized void reset(List<ZElement> ctx) {
+        clear();
+        baseline.clear();
+        baselineOrder = new ArrayList<>(ctx.size());
+        baselineBuilt = false;
+        clearPending();
+    }
+    
+    //Take a copy of the element list as the starting state
+    private void buildBaseline(List<ZElement> ctx) {
+        baselineOrder = new ArrayList<>(ctx.size());
+        for (ZElement e : ctx) {
+            baseline.put(e.getUUID(), e.copyOf(false));
+            baselineOrder.add(e.getUUID());
+        }
+        baselineBuilt = true;
+        clearPending();
+    }
+
+    /**
+     * Report that an element on the canvas changed
+     * @param e the changed element
+     */
+    public void elementChanged(ZElement e) {
+        changedElements.add(e);
+    }
+
+    /**
+     * Report that elements were added to, removed from, or reordered in the element list
+     */
+    public void orderChanged() {
+        orderChanged = true;
+    }
 
+    /**
+     * Forget the changes reported since the last saved step, such as the changes from restoring an undo or redo
+     */
+    public void clearPending() {
+        changedElements.clear();
+        orderChanged = false;
+    }
+
+    /**
+     * Push the changes made since the last save to the undo stack, as one step. Call this before making the next change.
+     * @param ctx the current element list
+     */
+    public synchronized void saveContext(List<ZElement> ctx) {
         if (suspend)
             return;
-        
+
+        commit(ctx);
+    }
+
+    //Record the pending changes as a step and push it to the undo stack.  Returns true if there were changes
+    private boolean commit(List<ZElement> ctx) {
+
+        if (!baselineBuilt) {  //the first save, nothing to undo yet
+            buildBaseline(ctx);
+            return false;
+        }
+
+        if (changedElements.isEmpty() && !orderChanged)
+            return false;
+
+        Step step = new Step();
+        HashSet<UUID> present = null;  //all elements in the list, only found if the order changed
+
+        if (orderChanged) {
+            ArrayList<UUID> order = new ArrayList<>(ctx.size());
+            present = new HashSet<>(ctx.size()*2);
+            for (ZElement e : ctx) {
+                order.add(e.getUUID());
+                present.add(e.getUUID());
+                if (!baseline.containsKey(e.getUUID()))  //added
+                    changedElements.add(e);
+            }
+
+            for (UUID id : baselineOrder) {
+                if (!present.contains(id)) {  //removed
+                    step.before.put(id, baseline.remove(id));
+                    step.after.put(id, null);
+                }
+            }
+
+            if (!order.equals(baselineOrder)) {
+                step.orderBefore = baselineOrder;
+                step.orderAfter = order;
+                baselineOrder = order;
+            }
+        }
+
+        for (ZElement e : changedElements) {
+            UUID id = e.getUUID();
+            if (present != null ? !present.contains(id) : !baseline.containsKey(id))  //no longer in the list
+                continue;
+
+            ZElement copy = e.copyOf(false);
+            step.before.put(id, baseline.put(id, copy));
+            step.after.put(id, copy);
+        }
+
+        clearPending();
+
+        if (step.after.isEmpty() && step.orderAfter == null)
+            return false;
+
         if (undoHistory.size() == stackDepth)  //remove oldest, if reached capacity limit
             undoHistory.removeLast();
-                
-        undoHistory.addFirst(copyOf(ctx));  //push a copy to the stack
-        
-        if (clearRedo)
-            redoHistory.clear(); //clear all redo because this is a new context
-    } 
-    
+
+        step.findEstimate();
+        undoHistory.addFirst(step);
+        redoHistory.clear(); //clear all redo because this is a new change
+        enforceBudget();
+        return true;
+    }
+
+    //Make the states the new baseline
+    private void applyToBaseline(Map<UUID, ZElement> states, ArrayList<UUID> order) {
+        for (Map.Entry<UUID, ZElement> s : states.entrySet()) {
+            if (s.getValue() == null)
+                baseline.remove(s.getKey());
+            else
+                baseline.put(s.getKey(), s.getValue());
+        }
+        if (order != null)
+            baselineOrder = order;
+    }
+
     /**
-     * Pop an element list from the undo stack
-     * @param ctx the current context, for redo
-     * @return the most recent element list, or null if there's no history
+     * Pop the most recent change from the undo stack.  Any changes since the last save are first pushed as their own step.  After
+     * restoring the returned change, call clearPending()
+     * @param ctx the current element list
+     * @return the states to restore, or null if there's no history
      */
-    public LinkedList<ZElement> undo(LinkedList<ZElement> ctx) {
-        
+    synchronized Change undo(List<ZElement> ctx) {
+
+        commit(ctx);
+
         if (undoHistory.isEmpty())
             return null;
-        
+
+        Step step = undoHistory.removeFirst();
+        unpack(step);
+
         if (redoHistory.size() == stackDepth)
             redoHistory.removeLast();
-                
-        redoHistory.addFirst(copyOf(ctx));
-        
-        return undoHistory.removeFirst();
-        
+        redoHistory.addFirst(step);
+
+        applyToBaseline(step.before, step.orderBefore);
+        Change change = new Change(step.before, step.orderBefore);
+        enforceBudget();  //may compress the step again
+        return change;
     }
-    
-    public LinkedList<ZElement> redo() {
-        
-         if (redoHistory.isEmpty())
+
+    /**
+     * Pop the most recently undone change from the redo stack.  Any changes since the last undo clear the redo history. After
+     * restoring the returned change, call clearPending()
+     * @param ctx the current element list
+     * @return the states to restore, or null if there's nothing to redo
+     */
+    synchronized Change redo(List<ZElement> ctx) {
+
+        commit(ctx);
+
+        if (redoHistory.isEmpty())
             return null;
-        
-        LinkedList<ZElement> redoCtx = redoHistory.removeFirst();
-        
-        saveContext(redoCtx, false);
-        return redoCtx;
+
+        Step step = redoHistory.removeFirst();
+        unpack(step);
+
+        if (undoHistory.size() == stackDepth)
+            undoHistory.removeLast();
+        undoHistory.addFirst(step);
+
+        applyToBaseline(step.after, step.orderAfter);
+        Change change = new Change(step.after, step.orderAfter);
+        enforceBudget();  //may compress the step again
+        return change;
     }
-    
-    
+
+
 
     public void suspendSave() {
         suspend = true;
@@ -107,13 +441,271 @@ public class UndoStack {
     public void resumeSave() {
         suspend = false;
     }
-    
+
     /**
      * Clear all history
      */
-    public void clear() {
+    public synchronized void clear() {
         redoHistory.clear();
         undoHistory.clear();
+        
+        closeSpill();  //nothing spilled anymore
+    }
+    
+    
+    //The steps on both stacks, the oldest undo steps first and the farthest redo steps last
+    private ArrayList<Step> getStepsOldestFirst() {
+        ArrayList<Step> steps = new ArrayList<>(undoHistory.size() + redoHistory.size());
+        Iterator<Step> it = undoHistory.descendingIterator();
+        while (it.hasNext())
+            steps.add(it.next());
+        it = redoHistory.descendingIterator();
+        while (it.hasNext())
+            steps.add(it.next());
+        return steps;
+    }
+    
+    //Drop the spill file if nothing is spilled anymore, and start compressing steps in the background if the history is over budget
+    private void enforceBudget() {
+        
+        ArrayList<Step> steps = getStepsOldestFirst();
+        
+        boolean spilled = false;
+        for (Step s : steps) {
+            if (s.spillOffset >= 0)
+                spilled = true;
+        }
+        
+        if (!spilled && spill != null) {  //all spilled steps were dropped, reuse the file from the start
+            try {
+                spill.setLength(0);
+            } catch (IOException ex) {
+                closeSpill();  //start a new file when next needed
+            }
+        }
+        
+        if (packing || (findStepToPack() == null && findPackedUsage() <= spillThreshold))
+            return;
+        
+        packing = true;
+        getPacker().execute(new Runnable() {
+            @Override
+            public void run() {
+                packSteps();
+            }
+        });
+    }
+    
+    //Compress the oldest steps, one at a time, until the held steps fit the memory budget, then spill the oldest compressed steps
+    private void packSteps() {
+        while (true) {
+            Step s;
+            Map<Object, Long> keep;
+            Object[] contents;
+            synchronized (this) {
+                s = findStepToPack();
+                if (s == null) {
+                    spillSteps();
+                    packing = false;
+                    notifyAll();
+                    return;
+                }
+                keep = findBaselineShared();
+                contents = new Object[] {s.before, s.after, s.orderBefore, s.orderAfter};
+            }
+            
+            //Serialize without holding the lock, the contents of a step are never modified
+            byte[] data = null;
+            ArrayList<Object> kept = null;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (PackingOutputStream out = new PackingOutputStream(new GZIPOutputStream(bytes), keep)) {
+                    for (Object o : contents)
+                        out.writeObject(o);
+                    kept = out.kept;
+                }
+                data = bytes.toByteArray();
+            } catch (IOException ex) {
+            }
+            
+            synchronized (this) {
+                if (data == null)
+                    s.unpackable = true;
+                else if (findStepToPack() == s && s.before == contents[0])  //still the step to pack, and not undone or redone meanwhile
+                    setPacked(s, data, kept);
+            }
+        }
+    }
+    
+    //Replace the step's contents with their compressed form
+    private void setPacked(Step s, byte[] data, ArrayList<Object> kept) {
+        IdentityHashMap<Object, Long> shared = new IdentityHashMap<>();
+        for (Object o : kept)
+            shared.put(o, s.shared.get(o));
+        
+        s.packed = data;
+        s.kept = kept;
+        s.shared = shared;
+        s.before = null;
+        s.after = null;
+        s.orderBefore = null;
+        s.orderAfter = null;
     }
     
+    //The oldest step that can be compressed, if the held steps are over the memory budget, otherwise null
+    private Step findStepToPack() {
+        ArrayList<Step> steps = getStepsOldestFirst();
+        Map<Object, Long> baselineShared = findBaselineShared();
+        
+        long held = 0;
+        IdentityHashMap<Object, Long> shared = new IdentityHashMap<>();
+        for (Step s : steps) {
+            if (s.isHeld()) {
+                held += s.estimate;
+                shared.putAll(s.shared);
+            }
+        }
+        for (Map.Entry<Object, Long> e : shared.entrySet()) {
+            if (!baselineShared.containsKey(e.getKey()))  //only held by the history
+                held += e.getValue();
+        }
+        
+        if (held <= memoryBudget)
+            return null;
+        for (Step s : steps) {
+            if (s.isHeld() && !s.unpackable)
+                return s;
+        }
+        return null;
+    }
+    
+    //The data shared by the elements of the baseline, which are held as long as the elements are on the canvas
+    private Map<Object, Long> findBaselineShared() {
+        IdentityHashMap<Object, Long> shared = new IdentityHashMap<>();
+        for (ZElement e : baseline.values())
+            e.findSharedMemory(shared);
+        return shared;
+    }
+    
+    private long findPackedUsage() {
+        long packed = 0;
+        for (Step s : getStepsOldestFirst()) {
+            if (s.packed != null)
+                packed += s.packed.length;
+        }
+        return packed;
+    }
+    
+    //Spill the oldest compressed steps until the compressed steps in memory are under the threshold
+    private void spillSteps() {
+        long packed = findPackedUsage();
+        for (Step s : getStepsOldestFirst()) {
+            if (packed <= spillThreshold)
+                break;
+            if (s.packed != null) {
+                int length = s.packed.length;
+                if (!spill(s))
+                    break;  //can't write to disk, keep in memory
+                packed -= length;
+            }
+        }
+    }
+    
+    //Move the compressed step to the spill file, returns false if it can't be written
+    private boolean spill(Step s) {
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("jzeld-undo", ".tmp");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            s.spillOffset = spill.length();
+            s.spillLength = s.packed.length;
+            spill.seek(s.spillOffset);
+            spill.write(s.packed);
+        } catch (IOException ex) {
+            s.spillOffset = -1;
+            return false;
+        }
+        s.packed = null;
+        return true;
+    }
+    
+    //Close and delete the spill file
+    private void closeSpill() {
+        if (spill == null)
+            return;
+        try {
+            spill.close();
+        } catch (IOException ex) {}
+        spillFile.delete();
+        spill = null;
+        spillFile = null;
+    }
+    
+    /**
+     * Wait until the steps being compressed or spilled in the background are done
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void waitForPacking() throws InterruptedException {
+        while (packing)
+            wait();
+    }
+    
+    //Estimated memory of the element not counting its shared data, which is added to the map
+    private static long findOwnEstimate(ZElement e, Map<Object, Long> shared) {
+        IdentityHashMap<Object, Long> found = new IdentityHashMap<>();
+        e.findSharedMemory(found);
+        long own = e.getMemoryEstimate();
+        for (long size : found.values())
+            own -= size;
+        shared.putAll(found);
+        return Math.max(0, own);
+    }
+    
+    private static synchronized ExecutorService getPacker() {
+        if (packer == null) {
+            packer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Undo history packer");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return packer;
+    }
+    
+    //Restore a packed or spilled step into memory
+    @SuppressWarnings("unchecked")
+    private void unpack(Step s) {
+        if (s.isHeld())
+            return;
+        
+        try {
+            byte[] data = s.packed;
+            if (data == null) {  //spilled
+                data = new byte[s.spillLength];
+                spill.seek(s.spillOffset);
+                spill.readFully(data);
+            }
+            
+            try (ObjectInputStream in = new UnpackingInputStream(new GZIPInputStream(new ByteArrayInputStream(data)), s.kept)) {
+                s.before = (HashMap<UUID, ZElement>)in.readObject();
+                s.after = (HashMap<UUID, ZElement>)in.readObject();
+                s.orderBefore = (ArrayList<UUID>)in.readObject();
+                s.orderAfter = (ArrayList<UUID>)in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new RuntimeException("Unable to restore undo history: " + ex.getMessage(), ex);
+        }
+        
+        s.packed = null;
+        s.kept = null;
+        s.spillOffset = -1;
+        s.findEstimate();
+    }
+
 }
@@ -2,6 +2,7 @@
 package com.github.kkieffer.jzeld;
 
 import com.github.kkieffer.jzeld.contextMenu.ZCanvasContextMenu;
+import com.github.kkieffer.jzeld.adapters.ImageStore;
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.ColorAdapter;
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.DimensionAdapter;
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.FontAdapter;
@@ -14,9 +15,11 @@ import com.github.kkieffer.jzeld.element.ZElement;
 import com.github.kkieffer.jzeld.element.ZAbstractShape;
 import com.github.kkieffer.jzeld.element.ZCanvasRuler;
 import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import com.github.kkieffer.jzeld.element.ZElementListener;
 import com.github.kkieffer.jzeld.element.ZGrid;
 import com.github.kkieffer.jzeld.element.ZGroupedElement;
 import com.github.kkieffer.jzeld.element.ZShape;
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import static java.awt.BasicStroke.CAP_SQUARE;
 import static java.awt.BasicStroke.JOIN_MITER;
@@ -29,11 +32,13 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -54,9 +59,16 @@ import java.lang.reflect.Method;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import javax.swing.AbstractAction;
 import javax.swing.ActionMap;
@@ -68,6 +80,7 @@ import javax.swing.KeyStroke;
 import javax.swing.RepaintManager;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -143,6 +156,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     
     public enum Orientation {LANDSCAPE, PORTRAIT, REVERSE_LANDSCAPE}  //The ordinals conform to the PageFormat integer defines
    
+    private enum WheelAction {SIZE, ROTATE, SHEAR_X, SHEAR_Y}  //what the wheel does to the selected elements, from the modifier keys
+    
     public enum Alignment {Auto, Left_Edge, Top_Edge, Right_Edge, Bottom_Edge, Centered_Vertical_Baseline, Centered_Horizontal_Baseline, Centered_Both;
         
         @Override
@@ -182,6 +197,9 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     private static final double ROTATION_MULTIPLIER = 1.0;
     private static final double SHEAR_MULTIPLIER = 0.1;
     private static final double SIZE_INCREASE_MULTIPLIER = 0.5;
+    private static final int WHEEL_GESTURE_IDLE_TIME = 500;  //milliseconds without wheel movement that ends a wheel gesture
+    private static final int DEFAULT_REFINE_DELAY = 300;  //milliseconds without input before repainting at full quality
+    private static final int DEFAULT_FRAME_RATE = 60;  //frames per second that accumulated mouse input is applied at
     private final static float SCALE = 72.0f;
 
     /* -------- FIELDS BELOW CAN BE SAVED TO FILE USING JAXB ---------------*/
@@ -243,7 +261,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         private ZGrid grid;
         
         @XmlElement(name="ZElement")        
-        private LinkedList<ZElement> zElements = new LinkedList<>();  //list of all Z-plane objects, first is top, bottom is last
+        private LayerList<ZElement> zElements = new LayerList<>();  //list of all Z-plane objects, first is top, bottom is last
  
         @XmlElement(name="Zoom")
         private double zoom = 1.0;
@@ -256,6 +274,15 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             return new Class<?>[] {UnitMeasure.class, Orientation.class, ZCanvasRuler.class, ZGrid.class};
         }
         
+        //JAXB callbacks: write each distinct image once per file, later uses refer to it by key
+        private void beforeMarshal(Marshaller m) {
+            ImageStore.beginSave(m);  //a new save, even if an earlier one on this thread failed without ending
+        }
+        
+        private void afterMarshal(Marshaller m) {
+            ImageStore.endSave();
+        }
+        
     }
     /*----------------------------------------------------------------------*/
     
@@ -265,8 +292,23 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     private final float[] dashedBorder = new float[]{0.0f, 5.0f, 5.0f};
     private final float[] altDashedBorder = new float[]{5.0f};
 
+    private final DecimalFormat degreeFormat = new DecimalFormat("0.00\u00b0");
+    private final BasicStroke marginStroke = new BasicStroke(0.5f);
+    
+    //Reused by the paint path, so repainting an unchanged scene does not create new strokes, fonts, or shapes
+    private double overlayStrokeZoom = Double.NaN;  //zoom the overlay strokes were created for
+    private BasicStroke overlayStroke;  //1 pixel wide at the zoom
+    private BasicStroke overlayDashedStroke;  //1 pixel wide, for each of the alternating dash patterns
+    private BasicStroke overlayAltDashedStroke;
+    private Font overlayFont;  //the mouse coordinate font scaled for the zoom
+    private Font overlayFontSource;
+    private double overlayFontZoom;
+    private final Rectangle2D.Double paintRect = new Rectangle2D.Double();
+    private final Line2D.Double paintLine = new Line2D.Double();
+
     private final int DRAG_BOX_SIZE = 10;
     private final int SHAPE_SELECT_MARGIN = 10;
+    private final int HIGHLIGHT_MARGIN = 4;  //pixels, selection highlight drawn outside the element margins
     
     
     //private final ArrayList<ZElement> selectedElements = new ArrayList<>();
@@ -292,6 +334,17 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     private ZElement lastSelectedElement;
     
     private Timer animationTimer;
+    
+    private BufferedImage sceneBuffer;  //retained image of the rulers, page, and elements, the overlay is painted over it
+    private Rectangle sceneBufferView;
+    private Point sceneBufferOrigin;
+    private double sceneBufferZoom;
+    private double sceneBufferScaleX, sceneBufferScaleY;
+    private RenderingHints sceneHints;
+    private Rectangle sceneDamage;  //area of the scene buffer needing repaint, in canvas coordinates. Not initialized here, repaint() is called during construction
+    private boolean moving = false;  //the canvas is being moved, such as by its viewport scrolling, which doesn't damage the scene
+    private final ArrayList<Rectangle> overlayRegions = new ArrayList<>();  //where the overlay was last painted, in canvas coordinates
+    private boolean overlayRegionsDamaged = false;  //true if the last painted overlay regions are already scheduled for repaint
     private HighlightAnimation animation = HighlightAnimation.Fast;
     
     private double scrollWheelMultiplier = 1.0;
@@ -303,6 +356,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     
     private boolean canvasModified;  //tracks any changes to the Z-plane order of the elements
     private boolean printOn = false;  //if printing is turned on (hides some pieces during paint)
+    private LevelOfDetail levelOfDetail = LevelOfDetail.DEFAULT;  //null to always paint at full detail
+    private boolean fullQuality = false;  //if true, paint at full detail on screen too
     
     private boolean wheelOn = true;  //true if the mouse wheel is enabled
     private long mouseWheelLastMoved = -1;
@@ -321,6 +376,80 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     
     private final HashMap<UUID, ZElement> uuidMap = new HashMap<>();  //quick lookup of UUID 
     
+    private final SpatialIndex<ZElement> spatialIndex = new SpatialIndex<>();  //transformed bounds of elements, in pixels at SCALE
+    private final Set<ZElement> staleIndexElements = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //changed since last indexed
+    private final Set<ZElement> selection = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //the selected elements on the canvas
+    private final Set<ZElement> unboundedElements = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //no fixed width or height, not indexed
+    
+    private final ZElementListener elementListener = new ZElementListener() {
+        @Override
+        public void elementChanged(ZElement e) {
+            repaintElementDamage(e);  //before marking stale, the index still holds where the element was last painted
+            staleIndexElements.add(e);
+            undoStack.elementChanged(e);
+            if (gestureOn && !e.isSelected())  //something in the cached layers changed
+                invalidateLayerCache();
+        }
+        
+        @Override
+        public void elementNeedsRepaint(ZElement e) {
+            repaintElementDamage(e);
+            if (gestureOn && !e.isSelected())  //painted in the cached layers
+                invalidateLayerCache();
+        }
+        
+        @Override
+        public void elementSelectionChanged(ZElement e) {
+            if (e.isSelected())
+                selection.add(e);
+            else
+                selection.remove(e);
+        }
+    };
+    
+    //While the selected elements are dragged, resized, or wheeled, everything else is painted once into cached layers
+    private boolean gestureOn = false;
+    private Timer wheelGestureTimer;
+    private BufferedImage belowLayerCache;  //page, rulers, grid, and all elements below the bottom selected element
+    private BufferedImage aboveLayerCache;  //all elements above the top selected element, null if none
+    private Rectangle layerCacheView;  //the visible area the layers were painted for
+    private Point layerCacheOrigin;
+    private double layerCacheZoom;
+    private double layerCacheScaleX;  //device scale
+    private double layerCacheScaleY;
+    private int layerCacheTop;  //layer of the top selected element, elements from here to the bottom selected element are painted live
+    private int layerCacheBottom;
+    
+    //While dragging, wheeling, or zooming in interactive quality mode, elements are painted for speed until input is idle
+    private boolean interactiveQuality = false;
+    private boolean interacting = false;  //input arrived within the refine delay
+    private boolean paintedInteractive = false;  //something was painted for speed, repaint at full quality when input is idle
+    private Timer refineTimer;
+    
+    //Mouse drags, moves, and wheel rotation arriving between frames are accumulated, and applied once per frame
+    private int frameRate = DEFAULT_FRAME_RATE;
+    private Timer frameTimer;
+    private long lastFrameTime;  //nanoseconds, when input was last applied
+    private Point2D pendingDrag;  //latest mouse location of a drag, not yet applied
+    private boolean pendingMove = false;  //the mouse moved, the overlay needs repainting
+    private WheelAction pendingWheelAction;  //null if no wheel rotation is pending
+    private double pendingWheelRotation;
+    
+    //With gesture previews on, dragging, rotating, or shearing the selected elements only changes the preview, which is applied to them
+    //when painted.  The elements are changed once, when the gesture ends
+    private boolean gesturePreview = false;
+    private boolean previewPending = false;  //the preview holds changes not yet applied to the selected elements
+    private double previewX, previewY;  //move, in units
+    private double previewRotation;  //degrees
+    private double previewShearX, previewShearY;
+    
+    private final Comparator<ZElement> layerOrder = new Comparator<ZElement>() {  //sorts from top layer to bottom
+        @Override
+        public int compare(ZElement e1, ZElement e2) {
+            return Integer.compare(getElementLayerPosition(e1), getElementLayerPosition(e2));
+        }
+    };
+    
     private final ArrayList<ZCanvasEventListener> canvasEventListeners = new ArrayList<>();
 
     //For restoration by JAXB
@@ -362,8 +491,12 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         canvasModified = false;
         
         uuidMap.clear();
-        for (ZElement e : fields.zElements)  //add all the elements to the hash map
-            uuidMap.put(e.getUUID(), e);
+        selection.clear();
+        spatialIndex.clear();
+        unboundedElements.clear();
+        for (ZElement e : fields.zElements)  //add all the elements to the hash map and spatial index
+            elementAttached(e);
+        undoStack.reset(fields.zElements);  //the undo history starts from these elements
         
         
         addMouseListener(this);	
@@ -385,10 +518,36 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                 }
                     
                 if (repaint)
-                    repaint();
+                    repaintOverlay();  //only the highlights and crosshairs change
+                else if (!hasSelectedElements() && selectedMousePress == null)
+                    animationTimer.stop();  //nothing to animate, restarted on selection
+            }
+        });
+        updateAnimationTimer();
+        
+        wheelGestureTimer = new Timer(WHEEL_GESTURE_IDLE_TIME, new ActionListener() {  //wheel has been idle, wheel gesture is done
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                endGesture();
+            }
+        });
+        wheelGestureTimer.setRepeats(false);
+        
+        refineTimer = new Timer(DEFAULT_REFINE_DELAY, new ActionListener() {  //input has been idle, repaint anything painted for speed
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refine();
+            }
+        });
+        refineTimer.setRepeats(false);
+        
+        frameTimer = new Timer(0, new ActionListener() {  //the next frame is due, apply the input that arrived since the last
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyPendingInput();
             }
         });
-        animationTimer.start();
+        frameTimer.setRepeats(false);
         
         
         //Set up the standard hotkeys for the canvas, more can be added by custom implementations
@@ -644,6 +803,15 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         clipboard.clear();
         contextMenu.dispose();   //clear context menu and listeners
         animationTimer.stop();
+        wheelGestureTimer.stop();
+        refineTimer.stop();
+        frameTimer.stop();
+        pendingDrag = null;
+        pendingWheelAction = null;
+        endGesture();
+        if (sceneBuffer != null)
+            sceneBuffer.flush();
+        sceneBuffer = null;
         canvasEventListeners.clear();
         removeMouseListener(this);	
         removeMouseMotionListener(this);    
@@ -661,10 +829,17 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         fields.zElements.clear();
 
-        for (ZElement e : elements) 
+        for (ZElement e : elements) {
+            e.setListener(null);
             e.removedFrom(this);
+        }
         
         uuidMap.clear();
+        selection.clear();
+        spatialIndex.clear();
+        staleIndexElements.clear();
+        unboundedElements.clear();
+        layerOrderChanged();
         repaint();
 
     }
@@ -693,41 +868,482 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      * @return the layer number, or -1 if not found
      */
     public int getElementLayerPosition(ZElement e) {
-        int i=0;
-        for (ZElement ze : fields.zElements) {
-            if (ze == e)
-                return i;
-            i++;
+        return fields.zElements.indexOf(e);
+    }
+    
+    //Call when elements are added, removed, or reordered in the Z-plane
+    private void layerOrderChanged() {
+        invalidateLayerCache();
+        if (undoStack != null)
+            undoStack.orderChanged();
+    }
+    
+    //Start a drag, resize, or wheel gesture on the selected elements
+    private void beginGesture() {
+        if (!gestureOn) {
+            gestureOn = true;
+            invalidateLayerCache();
         }
-        return -1;
     }
     
-    private boolean hasSelectedElements() {  //A little faster than getSelectedElements, because it returns on first one found
-        for (ZElement e : fields.zElements) {
-            if (e.isSelected())
-                return true;
+    //End the gesture, applying any preview and releasing the cached layers
+    private void endGesture() {
+        commitPreview();
+        if (gestureOn) {
+            gestureOn = false;
+            wheelGestureTimer.stop();
+            invalidateLayerCache();
+            repaint();
         }
-        return false;
     }
     
-    private ArrayList<ZElement> getSelectedElements() {
-        ArrayList<ZElement> selected = new ArrayList<>();
-        for (ZElement e : fields.zElements) {
-            if (e.isSelected())
-                selected.add(e);
+    //Input is changing the view or the selected elements, paint for speed until it has been idle for the refine delay
+    private void interacted() {
+        if (interactiveQuality) {
+            interacting = true;
+            refineTimer.restart();
+        }
+    }
+    
+    //Input is idle, paint at full quality anything that was painted for speed
+    private void refine() {
+        refineTimer.stop();
+        interacting = false;
+        if (paintedInteractive) {
+            paintedInteractive = false;
+            invalidateLayerCache();
+            repaint();
+        }
+    }
+    
+    private void invalidateLayerCache() {
+        if (belowLayerCache != null)
+            belowLayerCache.flush();
+        if (aboveLayerCache != null)
+            aboveLayerCache.flush();
+        belowLayerCache = null;
+        aboveLayerCache = null;
+    }
+    
+    //Start tracking an element that was placed in the element list
+    private void elementAttached(ZElement e) {
+        uuidMap.put(e.getUUID(), e);
+        e.setListener(elementListener);
+        if (e.isSelected())
+            selection.add(e);
+        staleIndexElements.add(e);  //indexed on next lookup
+        layerOrderChanged();
+        undoStack.elementChanged(e);  //may replace an element with the same UUID, whose state then changed
+    }
+    
+    //Stop tracking an element that was taken out of the element list
+    private void elementDetached(ZElement e) {
+        uuidMap.remove(e.getUUID());
+        e.setListener(null);
+        selection.remove(e);
+        e.releaseRenderCache();
+        staleIndexElements.remove(e);
+        unboundedElements.remove(e);
+        spatialIndex.remove(e);
+        layerOrderChanged();
+    }
+    
+    /**
+     * Finds the bounds of the element, including its margins, after rotation and shear are applied.
+     * @param e the element 
+     * @return the bounds in pixels at SCALE, or null if the element has no fixed width or height
+     */
+    private Rectangle2D getTransformedBounds(ZElement e) {
+        return getTransformedBounds(e, e.getCachedElementTransform(SCALE, false));
+    }
+    
+    private Rectangle2D getTransformedBounds(ZElement e, AffineTransform t) {
+        Rectangle2D r = e.getCachedBounds2D(SCALE);
+        if (r.getWidth() < 0 || r.getHeight() < 0)
+            return null;
+        
+        Rectangle2D m = e.getMarginBounds(SCALE);
+        Rectangle2D b = new Rectangle2D.Double(r.getX() + m.getX(), r.getY() + m.getY(), m.getWidth(), m.getHeight());
+        return t.createTransformedShape(b).getBounds2D();
+    }
+    
+    //Bring the spatial index up to date with any elements that changed
+    private void updateSpatialIndex() {
+        for (ZElement e : staleIndexElements) {
+            Rectangle2D b = getTransformedBounds(e);
+            if (b == null) {
+                spatialIndex.remove(e);
+                unboundedElements.add(e);
+            }
+            else {
+                unboundedElements.remove(e);
+                spatialIndex.put(e, b);
+            }
+        }
+        staleIndexElements.clear();
+    }
+    
+    /**
+     * Repaint only the area an element covered when last indexed and the area it covers now.  Called whenever the element changes, so the
+     * areas of several changes are merged by the RepaintManager into the next paint.
+     * @param e the changed element
+     */
+    private void repaintElementDamage(ZElement e) {
+        
+        Rectangle2D now = e.isSelected() ? getHighlightBounds(e) : getTransformedBounds(e);
+        if (now == null || unboundedElements.contains(e)) {  //could be anywhere
+            repaint();
+            return;
+        }
+        
+        repaintScaled(now);
+        
+        Rectangle2D before = spatialIndex.getBounds(e);
+        if (before != null)
+            repaintScaled(before);
+        
+        if (e.isSelected() && !overlayRegionsDamaged) {  //erase the highlight where it was last painted
+            overlayRegionsDamaged = true;
+            for (Rectangle r : overlayRegions)
+                super.repaint(0, r.x, r.y, r.width, r.height);
+        }
+    }
+    
+    //True if the element is painted with the gesture preview applied
+    private boolean isPreviewed(ZElement e) {
+        return previewPending && e.isSelected();
+    }
+    
+    /**
+     * Find how far the preview moves the element, limited the same way as ZElement.move() limits a move
+     * @param e the selected element
+     * @return the offset in units
+     */
+    private Point2D getPreviewOffset(ZElement e) {
+        if (!e.isMoveable())
+            return new Point2D.Double(0, 0);
+        
+        Point2D p = e.getPosition();
+        Rectangle2D r = e.getCachedBounds2D(SCALE);
+        double x = limit(previewX, -r.getWidth()/SCALE - p.getX(), getMaxXPosition() - p.getX());
+        double y = limit(previewY, -r.getHeight()/SCALE - p.getY(), getMaxYPosition() - p.getY());
+        return new Point2D.Double(x, y);
+    }
+    
+    private static double limit(double val, double min, double max) {
+        if (max < min)  //already outside the limits, can't move
+            return 0;
+        return Math.max(min, Math.min(max, val));
+    }
+    
+    /**
+     * The transform the element is painted with, including the gesture preview if the element is previewed
+     * @param e the element
+     * @return the transform from the element's bounds, in pixels at SCALE, to the canvas.  Read-only if not previewed
+     */
+    private AffineTransform getPaintTransform(ZElement e) {
+        if (!isPreviewed(e))
+            return e.getCachedElementTransform(SCALE, false);
+        
+        Rectangle2D r = e.getCachedBounds2D(SCALE);
+        Point2D offset = getPreviewOffset(e);
+        
+        AffineTransform t = AffineTransform.getTranslateInstance(r.getCenterX() + offset.getX()*SCALE, r.getCenterY() + offset.getY()*SCALE);
+        t.rotate(Math.toRadians(e.getRotation() + previewRotation));
+        t.shear(e.getShearX() + previewShearX, e.getShearY() + previewShearY);
+        t.translate(-r.getCenterX(), -r.getCenterY());
+        return t;
+    }
+    
+    //Add to the gesture preview, repainting the selected elements where they were and where they are now painted
+    private void changePreview(double x, double y, double rotation, double shearX, double shearY) {
+        
+        ArrayList<ZElement> selected = getSelectedElements();
+        for (ZElement e : selected)
+            repaintPreviewDamage(e);
+        
+        previewX += x;
+        previewY += y;
+        previewRotation += rotation;
+        previewShearX += shearX;
+        previewShearY += shearY;
+        previewPending = true;
+        
+        for (ZElement e : selected)
+            repaintPreviewDamage(e);
+        
+        if (!overlayRegionsDamaged) {  //erase the highlights where they were last painted
+            overlayRegionsDamaged = true;
+            for (Rectangle r : overlayRegions)
+                super.repaint(0, r.x, r.y, r.width, r.height);
+        }
+    }
+    
+    private void repaintPreviewDamage(ZElement e) {
+        Rectangle2D b = getHighlightBounds(e);
+        if (b == null)  //could be anywhere
+            repaint();
+        else
+            repaintScaled(b);
+    }
+    
+    //Apply the previewed move, rotation, and shear to the selected elements, as one change since the undo context saved at the gesture start
+    private void commitPreview() {
+        
+        if (!previewPending)
+            return;
+        
+        ArrayList<ZElement> selected = getSelectedElements();
+        Point2D[] offsets = new Point2D[selected.size()];
+        for (int i=0; i<offsets.length; i++)
+            offsets[i] = getPreviewOffset(selected.get(i));
+        
+        double rotation = previewRotation;
+        double shearX = previewShearX;
+        double shearY = previewShearY;
+        previewPending = false;  //painted and damaged without the preview from here on
+        previewX = previewY = previewRotation = previewShearX = previewShearY = 0;
+        
+        for (int i=0; i<offsets.length; i++) {
+            ZElement e = selected.get(i);
+            if (offsets[i].getX() != 0 || offsets[i].getY() != 0)
+                e.move(offsets[i].getX(), offsets[i].getY(), getMaxXPosition(), getMaxYPosition());
+            if (rotation != 0)
+                e.rotate(rotation);
+            if (shearX != 0)
+                e.shearX(shearX);
+            if (shearY != 0)
+                e.shearY(shearY);
+        }
+    }
+    
+    //Previewed elements are indexed where they were before the gesture, add any not found where they are now painted
+    private void addPreviewedElements(ArrayList<ZElement> found) {
+        if (!previewPending)
+            return;
+        
+        Set<ZElement> inList = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());
+        inList.addAll(found);
+        
+        boolean added = false;
+        for (ZElement e : selection) {
+            if (inList.add(e)) {
+                found.add(e);
+                added = true;
+            }
         }
+        if (added)
+            Collections.sort(found, layerOrder);
+    }
+    
+    //Repaint the region, given in pixels at SCALE, padded for antialiasing
+    private void repaintScaled(Rectangle2D r) {
+        int left = (int)Math.floor(r.getMinX() * fields.zoom + fields.origin.x) - 1;
+        int top = (int)Math.floor(r.getMinY() * fields.zoom + fields.origin.y) - 1;
+        int right = (int)Math.ceil(r.getMaxX() * fields.zoom + fields.origin.x) + 1;
+        int bottom = (int)Math.ceil(r.getMaxY() * fields.zoom + fields.origin.y) + 1;
+        repaint(left, top, right - left, bottom - top);
+    }
+    
+    /**
+     * Finds the area covered by the element and its selection highlight, after rotation and shear are applied.
+     * @param e the element
+     * @return the bounds in pixels at SCALE, or null if the element has no fixed width or height
+     */
+    private Rectangle2D getHighlightBounds(ZElement e) {
+        Rectangle2D r = e.getCachedBounds2D(SCALE);
+        if (r.getWidth() < 0 || r.getHeight() < 0)
+            return null;
+        
+        double margin = Math.ceil(getSelectMargin(e)) + 3.0/fields.zoom;
+        Rectangle2D highlight = new Rectangle2D.Double(r.getX() - margin, r.getY() - margin, r.getWidth() + margin*2, r.getHeight() + margin*2);
+        AffineTransform t = getPaintTransform(e);
+        Rectangle2D b = t.createTransformedShape(highlight).getBounds2D();
+        Rectangle2D.union(b, getTransformedBounds(e, t), b);
+        return b;
+    }
+    
+    /**
+     * Find the elements whose indexed bounds intersect the region
+     * @param region the region, in pixels at SCALE
+     * @return the elements, ordered from the top layer to the bottom
+     */
+    private ArrayList<ZElement> queryElements(Rectangle2D region) {
+        updateSpatialIndex();
+        ArrayList<ZElement> found = spatialIndex.query(region, new ArrayList<ZElement>());
+        Collections.sort(found, layerOrder);
+        return found;
+    }
+    
+    /**
+     * Find the elements that need to be painted to cover the clip region, which includes all elements without a fixed width or height
+     * @param clip the region to paint, in pixels at SCALE, or null to paint everything
+     * @return the elements, ordered from the top layer to the bottom
+     */
+    private ArrayList<ZElement> getElementsToPaint(Rectangle2D clip) {
+        if (clip == null)
+            return new ArrayList<>(fields.zElements);
+        
+        double pad = HIGHLIGHT_MARGIN/fields.zoom;  //selection highlights are drawn just outside the margins
+        ArrayList<ZElement> found = queryElements(new Rectangle2D.Double(clip.getX() - pad, clip.getY() - pad, clip.getWidth() + 2*pad, clip.getHeight() + 2*pad));
+        if (!unboundedElements.isEmpty()) {
+            found.addAll(unboundedElements);
+            Collections.sort(found, layerOrder);
+        }
+        return found;
+    }
+    
+    /**
+     * Find the elements whose transformed (rotated and sheared) bounds intersect the region
+     * @param region the region to search, in units
+     * @return the elements found, ordered from the top Z-plane layer to the bottom.  The layer of each can be retrieved with getElementLayerPosition()
+     */
+    public ZElement[] getElementsIntersecting(Rectangle2D region) {
+        
+        Rectangle2D r = new Rectangle2D.Double(region.getX() * SCALE, region.getY() * SCALE, region.getWidth() * SCALE, region.getHeight() * SCALE);
+        
+        ArrayList<ZElement> list = new ArrayList<>();
+        for (ZElement e : queryElements(r)) {
+            if (!r.intersects(e.getTransformedBounds2D(SCALE)))  //cheap rejection before testing the transformed shape
+                continue;
+            Shape s = e.getCachedElementTransform(SCALE, false).createTransformedShape(e.getCachedBounds2D(SCALE));
+            if (s.intersects(r))
+                list.add(e);
+        }
+        ZElement[] array = new ZElement[list.size()];
+        list.toArray(array);
+        return array;
+    }
+    
+    private boolean hasSelectedElements() { 
+        return !selection.isEmpty();
+    }
+    
+    private ArrayList<ZElement> getSelectedElements() {  //ordered from the top layer to the bottom
+        ArrayList<ZElement> selected = new ArrayList<>(selection);
+        Collections.sort(selected, layerOrder);
         return selected;
     }
     
+    //Run the animation timer only while there is a selection to animate or a press to time
+    private void updateAnimationTimer() {
+        if (animationTimer == null)
+            return;
+        if (hasSelectedElements() || selectedMousePress != null) {
+            if (!animationTimer.isRunning())
+                animationTimer.start();
+        }
+        else
+            animationTimer.stop();
+    }
+    
     public void setHighlightAnimation(HighlightAnimation a) {
         animation = a;
         canvasModified = true;
         animationTimer.setDelay(animation.delaySpeed());
-        animationTimer.start();
+        updateAnimationTimer();
         
         repaint();
     }
     
+    /**
+     * Set the thresholds below which elements are painted in a simpler form, which speeds painting when zoomed out.  Printing
+     * and exporting to images always paint at full detail.
+     * @param lod the thresholds, LevelOfDetail.DEFAULT is used initially.  Use null to always paint at full detail
+     */
+    public void setLevelOfDetail(LevelOfDetail lod) {
+        levelOfDetail = lod;
+        detailChanged();
+    }
+    
+    public LevelOfDetail getLevelOfDetail() {
+        return levelOfDetail;
+    }
+    
+    /**
+     * Force elements to be painted at full detail on the screen, regardless of the level of detail thresholds
+     * @param full true to paint at full detail
+     */
+    public void setFullQuality(boolean full) {
+        if (fullQuality == full)
+            return;
+        fullQuality = full;
+        detailChanged();
+    }
+    
+    public boolean isFullQuality() {
+        return fullQuality;
+    }
+    
+    //Elements painted at the old detail are held in the render caches, cached layers, and scene buffer, so repaint them all
+    private void detailChanged() {
+        for (ZElement e : fields.zElements)
+            e.releaseRenderCache();
+        invalidateLayerCache();
+        repaint();
+    }
+    
+    /**
+     * Paint for speed while the user drags, resizes, wheels, or zooms: elements are painted with speed rendering hints and no antialiasing.
+     * Once input has been idle for the refine delay, the canvas is repainted at full quality.
+     * @param on true to paint for speed during interaction, false (the default) to always paint at full quality
+     */
+    public void setInteractiveQuality(boolean on) {
+        interactiveQuality = on;
+        if (!on)
+            refine();
+    }
+    
+    public boolean isInteractiveQuality() {
+        return interactiveQuality;
+    }
+    
+    /**
+     * Set how long input must be idle before the canvas is repainted at full quality, when interactive quality is on
+     * @param millis the delay in milliseconds
+     */
+    public void setRefineDelay(int millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Refine delay can't be negative");
+        refineTimer.setInitialDelay(millis);
+    }
+    
+    public int getRefineDelay() {
+        return refineTimer.getInitialDelay();
+    }
+    
+    /**
+     * Preview drags, rotations, and shears of the selected elements instead of changing them on each mouse event.  The preview is
+     * applied when the selected elements are painted, and the elements are changed once when the gesture ends.  Listeners are notified
+     * of the change only then.
+     * @param on true to preview gestures, false (the default) to change the elements as the mouse moves
+     */
+    public void setGesturePreview(boolean on) {
+        if (!on)
+            commitPreview();
+        gesturePreview = on;
+    }
+    
+    public boolean isGesturePreview() {
+        return gesturePreview;
+    }
+    
+    /**
+     * Set the rate at which mouse input is applied.  Drags, moves, and wheel rotation arriving faster than this are accumulated and
+     * applied once per frame, followed by one repaint.
+     * @param fps frames per second, 60 by default, or zero to apply every mouse event as it arrives
+     */
+    public void setFrameRate(int fps) {
+        if (fps < 0)
+            throw new IllegalArgumentException("Frame rate can't be negative");
+        frameRate = fps;
+        applyPendingInput();
+    }
+    
+    public int getFrameRate() {
+        return frameRate;
+    }
+    
     public void setScrollWheelMultiplier(double mult) {
         scrollWheelMultiplier = mult;
     }
@@ -1154,6 +1770,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         if (fields.zoom < 8.0) {
             fields.zoom += .25;
+            interacted();
          
             updatePreferredSize();
             repaint();
@@ -1172,6 +1789,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         if (fields.zoom > 0.5) {
             fields.zoom -= .25;
+            interacted();
         
             updatePreferredSize();
             repaint();
@@ -1232,6 +1850,24 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         undoStack.saveContext(fields.zElements);
     }
     
+    /**
+     * Sets the memory limits of the undo history.  The newest changes are held in memory up to the budget, older changes are compressed in the background,
+     * and once the compressed changes pass the spill threshold the oldest are written to a temporary file.
+     * @param memoryBudget the estimated bytes the newest changes can use, uncompressed
+     * @param spillThreshold the bytes of compressed changes to keep in memory
+     */
+    public void setUndoMemoryBudget(long memoryBudget, long spillThreshold) {
+        undoStack.setMemoryBudget(memoryBudget, spillThreshold);
+    }
+    
+    /**
+     * Estimates the memory used by the undo history, not including changes spilled to disk
+     * @return the estimated size in bytes
+     */
+    public long getUndoMemoryUsage() {
+        return undoStack.getMemoryUsage();
+    }
+    
     /**
      * Enables or suspends saving the canvas context to the undo stack.  When suspended, canvas changes after this call cannot be 
      * undone. This is useful if a feature needs to change multiple items at once, and its not desirable to back out any one 
@@ -1245,22 +1881,62 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             undoStack.suspendSave();
     }
     
-    private void restoreContext(LinkedList<ZElement> restoreContext) {
-        if (restoreContext != null) {
-
-            clearAll();  //clear out all elements
-          
-            fields.zElements = restoreContext;  //replace all the elements
-
-            for (ZElement e : fields.zElements)  //restore all the elements to the hash map
-                uuidMap.put(e.getUUID(), e);
+    //Patch the element list to the restored states, replacing only the changed elements
+    private void restoreContext(UndoStack.Change change) {
+        if (change == null)
+            return;
         
-            for (ZElement e : fields.zElements)
-                e.addedTo(this); //tell they were added
-            
-            
-            selectNone();
+        Map<UUID, ZElement> states = change.getStates();
+        ArrayList<ZElement> removed = new ArrayList<>();
+        ArrayList<ZElement> added = new ArrayList<>();
+        
+        if (change.getOrder() == null) {  //same elements in the same order, replace the changed ones in place
+            ListIterator<ZElement> it = fields.zElements.listIterator();
+            while (it.hasNext()) {
+                ZElement e = it.next();
+                ZElement state = states.get(e.getUUID());
+                if (state != null) {
+                    ZElement with = state.copyOf(false);
+                    it.set(with);
+                    removed.add(e);
+                    added.add(with);
+                }
+            }
+        }
+        else {  //rebuild the list in the restored order, keeping the unchanged elements
+            LayerList<ZElement> restored = new LayerList<>();
+            for (UUID id : change.getOrder()) {
+                ZElement state = states.get(id);
+                if (state != null) {
+                    ZElement with = state.copyOf(false);
+                    restored.add(with);
+                    added.add(with);
+                } 
+                else {
+                    ZElement e = uuidMap.get(id);
+                    if (e != null)
+                        restored.add(e);
+                }
+            }
+            for (ZElement e : fields.zElements) {
+                if (states.containsKey(e.getUUID()))
+                    removed.add(e);
+            }
+            fields.zElements = restored;
+            layerOrderChanged();
         }
+        
+        for (ZElement e : removed) {
+            elementDetached(e);
+            e.removedFrom(this);
+        }
+        for (ZElement e : added) {
+            elementAttached(e);
+            e.addedTo(this); //tell they were added
+        }
+        
+        undoStack.clearPending();  //the restore is not a new change
+        selectNone();
     }
     
     /**
@@ -1275,7 +1951,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     
     public void redo() {
                 
-        restoreContext(undoStack.redo());
+        restoreContext(undoStack.redo(fields.zElements));
         repaint();
         
     }
@@ -1318,7 +1994,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         }
         
         setLastMethod("setShear", "Set Shear", horiz, ratio);
-        repaint();     
 
     }
     
@@ -1342,7 +2017,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         }
         
         setLastMethod("flip", "Flip " + (horiz ? "Horizontal" : "Vertical"), horiz);
-        repaint();     
    
     }
 
@@ -1394,7 +2068,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             }
             selectedElement.setRotation(newRotation);
         }
-        repaint();
     }
     
     
@@ -1409,7 +2082,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         for (ZElement e : getSelectedElements()) {
            e.setOpacity(o);
         }
-        repaint();
     }
     
     public void moveSelected(double x, double y) {
@@ -1417,7 +2089,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         for (ZElement e : getSelectedElements()) {
            e.move(x, y, getMaxXPosition(), getMaxYPosition());
         }
-        repaint();
     }
     
     public void shearSelected(double x, double y) {
@@ -1426,7 +2097,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
            e.shearX(x);
            e.shearY(y);
         }
-        repaint();
     }
     
     /**
@@ -1442,14 +2112,12 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             e.increaseSize(w, h, 1, SCALE*getZoomFactor());
             e.setResizable(r);
         }
-        repaint();
     }
     
     public void rotateSelected(double angle) {
         for (ZElement e : getSelectedElements()) {
            e.rotate(angle);
         }
-        repaint();
     }
     
     /**
@@ -1558,7 +2226,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                     
             }
         }
-        repaint();     
         setLastMethod("align", "Align " + atype.toString().replace("_", " "), atype);
 
     }
@@ -1592,8 +2259,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         Collections.reverse(selectedElements); //the selected elements are ordered with top z plane first.  But the Grouped Element draws grouped elements in the order provided, so we need to reverse the list
         ZGroupedElement group = ZGroupedElement.createGroup(selectedElements, null, true);  //create the group of elements
         
-        for (ZElement e: selectedElements) //remove all selected
-            removeElement(e);
+        removeElements(selectedElements); //remove all selected
         
         addElement(group);  //add the group element
         selectNone();
@@ -1628,6 +2294,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         undoStack.suspendSave();  //don't push all the removed and restored element changes to the undo stack
 
         ArrayList<ZElement> restoredElements = new ArrayList<>();  //create a temporary list to hold all restored elements
+        ArrayList<ZElement> groups = new ArrayList<>();
 
         it = selectedElements.iterator();
         while (it.hasNext()) {
@@ -1643,18 +2310,19 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                     restoredElements.add(u); 
                 
                 it.remove();
-                this.removeElement(g);
+                groups.add(g);
                 
             }
             
             
         }
         
+        this.removeElements(groups);
+        
         selectNone();
-        for (ZElement e : restoredElements) {  //added back in the z-plane order such that the top zplane is last in list
-            this.addElement(e);
+        this.addElements(restoredElements);  //added back in the z-plane order such that the top zplane is last in list
+        for (ZElement e : restoredElements) 
             elementSelected(e);
-        }
          
         undoStack.resumeSave();
 
@@ -1712,8 +2380,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             return 0;
         
         //Remove all abstract shapes to be merged from the canvas - except the reference (it will be replaced) 
-        for (ZElement e : combineList)
-            removeElement(e);
+        removeElements(combineList);
         
         
         Shape mergedShape = ref.combineWith(operation, combineList);  //combine reference with list of other elements
@@ -1769,7 +2436,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         for (ZElement selectedElement : selectedElements)
             selectedElement.setCustomStroke(stroke);
         
-        repaint();
         
     }
     
@@ -1790,7 +2456,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             selectedElement.setOutlineWidth(width);
         
         setLastMethod("setOutlineWidth", "Line Width", width);
-        repaint();
         
     }
     
@@ -1806,7 +2471,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             selectedElement.setOutlineStyle(borderStyle);
         
         setLastMethod("setOutlineStyle", "Line Style", borderStyle);
-        repaint();
     }
     
     
@@ -1831,7 +2495,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         for (ZElement selectedElement : selectedElements)
             selectedElement.setDashPattern(dash);
         
-        repaint();
         
     }
     
@@ -1852,7 +2515,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             selectedElement.setOutlineColor(c);
         
         setLastMethod("setOutlineColor", "Line Color", c);
-        repaint();
     }
     
     /**
@@ -1872,7 +2534,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             selectedElement.setFillColor(c);
         
         setLastMethod("setFillColor", "Fill Color", c);
-        repaint();     
 
     }
     
@@ -1892,7 +2553,6 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             selectedElement.removeFill();
         
         setLastMethod("removeFill", "Remove Fill");
-        repaint();     
 
     }
    
@@ -1903,21 +2563,41 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      * @return true if added, false if already exists on canvas
      */
     public boolean addElement(ZElement e) {
-        if (fields.zElements.contains(e))
-            return false;
+        return addElements(Collections.singletonList(e)) == 1;
+    }
+    
+    /**
+     * Adds the elements to the canvas, each on the top layer in turn, so that the last element is on top. This can be undone as one
+     * change, and the canvas is repainted once.
+     * @param elements the elements to add
+     * @return the number of elements added, elements that already exist on the canvas are skipped
+     */
+    public int addElements(Collection<? extends ZElement> elements) {
+        
+        Set<ZElement> added = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //identity, ignoring any repeats
+        ArrayList<ZElement> adding = new ArrayList<>(elements.size());
+        for (ZElement e : elements) {
+            if (e != null && !isOnCanvas(e) && added.add(e))
+                adding.add(e);
+        }
+        if (added.isEmpty())
+            return 0;
         
         undoStack.saveContext(fields.zElements);
 
-        fields.zElements.addFirst(e);
-        uuidMap.put(e.getUUID(), e);
-
-        e.addedTo(this);
+        for (ZElement e : adding) {
+            fields.zElements.addFirst(e);
+            elementAttached(e);
+        }
+        
+        for (ZElement e : adding)  //tell they were added, once all are on the canvas
+            e.addedTo(this);
 
         lastMethod = null;
         canvasModified = true;
         repaint();     
 
-        return true;
+        return adding.size();
     }
     
     /**
@@ -1925,19 +2605,51 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      * @param e element to remove
      */
     public void removeElement(ZElement e) {
-        if (!fields.zElements.remove(e))
-            return;
+        removeElements(Collections.singletonList(e));
+    }
+    
+    /**
+     * Removes the elements from the canvas. This can be undone as one change, and the canvas is repainted once.  If selected elements
+     * are removed, the event listeners are told of the remaining selection once.
+     * @param elements the elements to remove
+     * @return the number of elements removed, elements not on the canvas are skipped
+     */
+    public int removeElements(Collection<? extends ZElement> elements) {
+        
+        Set<ZElement> removed = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());
+        for (ZElement e : elements) {
+            if (isOnCanvas(e))
+                removed.add(e);
+        }
+        if (removed.isEmpty())
+            return 0;
             
-        undoStack.saveContext(fields.zElements);
+        undoStack.saveContext(fields.zElements);  //before removing, so the removal can be undone
+        
+        Iterator<ZElement> it = fields.zElements.iterator();
+        while (it.hasNext()) {
+            if (removed.contains(it.next()))
+                it.remove();
+        }
 
-        uuidMap.remove(e.getUUID());
-        e.removedFrom(this);
+        boolean selectionRemoved = false;
+        for (ZElement e : removed) {
+            selectionRemoved |= e.isSelected();
+            elementDetached(e);
+        }
+        
+        for (ZElement e : removed)  //tell they were removed, once all are off the canvas
+            e.removedFrom(this);
+        
+        if (selectionRemoved)
+            selectionRemoved(removed);
     
         canvasModified = true;
 
         lastMethod = null;
         repaint();     
 
+        return removed.size();
     }
     
     /**
@@ -1947,19 +2659,76 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      * @return true if the element was replaced, false if "replace" element was not found
      */
     public boolean replaceElement(ZElement replace, ZElement with) {
-        if (!fields.zElements.contains(replace))
-            return false;
+        return replaceElements(Collections.singletonMap(replace, with)) == 1;
+    }
+    
+    /**
+     * Replaces elements in the canvas with others, maintaining their Z positions.  This can be undone as one change, and the canvas is 
+     * repainted once.  If selected elements are replaced, the event listeners are told of the remaining selection once.
+     * @param replacements map of the elements to replace to the element to replace each with
+     * @return the number of elements replaced, elements not on the canvas are skipped, as are replacements that are null, already on
+     * the canvas, or repeated for another element
+     */
+    public int replaceElements(Map<? extends ZElement, ? extends ZElement> replacements) {
+        
+        IdentityHashMap<ZElement, ZElement> replacing = new IdentityHashMap<>();
+        Set<ZElement> withs = Collections.newSetFromMap(new IdentityHashMap<ZElement, Boolean>());  //each replacement placed once
+        for (Map.Entry<? extends ZElement, ? extends ZElement> r : replacements.entrySet()) {
+            ZElement with = r.getValue();
+            if (isOnCanvas(r.getKey()) && with != null && !isOnCanvas(with) && withs.add(with))
+                replacing.put(r.getKey(), with);
+        }
+        if (replacing.isEmpty())
+            return 0;
         
         undoStack.saveContext(fields.zElements);
         
-        fields.zElements.set(fields.zElements.indexOf(replace), with);
+        ListIterator<ZElement> it = fields.zElements.listIterator();
+        while (it.hasNext()) {
+            ZElement with = replacing.get(it.next());
+            if (with != null)
+                it.set(with);
+        }
+        
+        boolean selectionRemoved = false;
+        for (ZElement replace : replacing.keySet()) {
+            selectionRemoved |= replace.isSelected();
+            elementDetached(replace);
+        }
+        for (ZElement with : replacing.values())
+            elementAttached(with);
+        
+        for (Map.Entry<ZElement, ZElement> r : replacing.entrySet()) {
+            r.getKey().removedFrom(this);
+            r.getValue().addedTo(this);
+        }
         
-        replace.removedFrom(this);
-        with.addedTo(this);
+        if (selectionRemoved)
+            selectionRemoved(replacing.keySet());
                 
         repaint();     
 
-        return true;
+        return replacing.size();
+    }
+    
+    //Selected elements were taken off the canvas, tell the listeners of the new last selected element once for the whole batch
+    private void selectionRemoved(Set<ZElement> removed) {
+        if (removed.contains(passThruElement))
+            passThruElement = null;
+        if (removed.contains(selectedResizeElement))
+            selectedResizeElement = null;
+        if (lastSelectedElement == null || removed.contains(lastSelectedElement))
+            lastSelectedElement = selection.isEmpty() ? null : selection.iterator().next();
+        
+        invalidateLayerCache();
+        updateAnimationTimer();
+        for (ZCanvasEventListener l : canvasEventListeners)
+            l.elementSelected(lastSelectedElement);  //null if nothing remains selected
+    }
+    
+    //True if the element is on the canvas, found by its UUID 
+    private boolean isOnCanvas(ZElement e) {
+        return e != null && uuidMap.get(e.getUUID()) == e;
     }
     
     
@@ -1979,6 +2748,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             fields.zElements.remove(selectedElement);
             fields.zElements.addLast(selectedElement);   
         }
+        layerOrderChanged();
         canvasModified = true;
 
         setLastMethod("moveToBack", "Move To Back");
@@ -2001,6 +2771,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             fields.zElements.remove(selectedElement);
             fields.zElements.addFirst(selectedElement);
         }
+        layerOrderChanged();
         canvasModified = true;
 
         setLastMethod("moveToFront", "Move To Front");
@@ -2029,6 +2800,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             fields.zElements.remove(index);
             fields.zElements.add(index+1, selectedElement);
         }
+        layerOrderChanged();
         canvasModified = true;
 
         setLastMethod("moveBackward", "Move Backward");
@@ -2058,6 +2830,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             fields.zElements.add(index-1, selectedElement);
         }
 
+        layerOrderChanged();
         canvasModified = true;
 
         setLastMethod("moveForward", "Move Forward");
@@ -2217,7 +2990,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         while (it.hasNext()) {
             ZElement e = it.next();
             fields.zElements.remove(e);
-            uuidMap.remove(e.getUUID());
+            elementDetached(e);
             e.removedFrom(this);
             it.remove();
         }
@@ -2242,37 +3015,53 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     private void paintElement(Graphics2D g2d, ZElement o, boolean highlightSelectedOnly) {
         if (o != null) {
             
-            Rectangle2D r = o.getBounds2D(SCALE);  //find the location and bounds of the element to paint
+            Rectangle2D r = o.getCachedBounds2D(SCALE);  //find the location and bounds of the element to paint
             AffineTransform t = g2d.getTransform();
-            g2d.translate(r.getX() + r.getWidth()/2, r.getY() + r.getHeight()/2);  //translate to the center of the element
-            g2d.rotate(Math.toRadians(o.getRotation()));  //rotate
-            g2d.shear(o.getShearX(), o.getShearY());
-            g2d.translate(-r.getWidth()/2, -r.getHeight()/2);  //translate so that 0,0 is the top left corner
+            if (isPreviewed(o)) {  //moved, rotated, and sheared by the gesture preview
+                g2d.transform(getPaintTransform(o));
+                g2d.translate(r.getX(), r.getY());
+            } else {
+                g2d.translate(r.getX() + r.getWidth()/2, r.getY() + r.getHeight()/2);  //translate to the center of the element
+                g2d.rotate(Math.toRadians(o.getRotation()));  //rotate
+                g2d.shear(o.getShearX(), o.getShearY());
+                g2d.translate(-r.getWidth()/2, -r.getHeight()/2);  //translate so that 0,0 is the top left corner
+            }
             
             if (!highlightSelectedOnly) {  //paint the element
-                o.paint(g2d, SCALE, r.getWidth()<0 ? getWidth() : r.getWidth(), r.getHeight()<0 ? getHeight() : r.getHeight());      
+                double w = r.getWidth()<0 ? getWidth() : r.getWidth();
+                double h = r.getHeight()<0 ? getHeight() : r.getHeight();
+                if (printOn) {
+                    Object lastOutput = g2d.getRenderingHint(LevelOfDetail.OUTPUT_KEY);
+                    g2d.setRenderingHint(LevelOfDetail.OUTPUT_KEY, Boolean.TRUE);
+                    o.paint(g2d, SCALE, w, h);  //keep printing at full resolution
+                    g2d.setRenderingHint(LevelOfDetail.OUTPUT_KEY, lastOutput);
+                }
+                else
+                    o.paintCached(g2d, SCALE, w, h);
             }
                                  
             if (o.isSelected() && highlightSelectedOnly && r.getWidth() > 0 && r.getHeight() > 0) {  //highlight selected element, just outside its boundaries
                 g2d.setColor(o.isPrintable() ? Color.BLACK : Color.GRAY);
-                g2d.setStroke(new BasicStroke((float)(1.0f/fields.zoom), CAP_SQUARE, JOIN_MITER, 10.0f, selectedAlternateBorder ? dashedBorder : altDashedBorder, 0.0f));
+                g2d.setStroke(getOverlayStroke(true));
                 double margin = Math.ceil(getSelectMargin(o)) + (1.0/fields.zoom);  //add the outline width, plus 2 pixels out
-                g2d.draw(new Rectangle2D.Double(-margin, -margin, r.getWidth()+margin*2, r.getHeight()+margin*2)); 
+                paintRect.setRect(-margin, -margin, r.getWidth()+margin*2, r.getHeight()+margin*2);
+                g2d.draw(paintRect); 
  
                 g2d.setColor(Color.WHITE);
                 margin+=1.0/fields.zoom;
-                g2d.draw(new Rectangle2D.Double(-margin, -margin, r.getWidth()+margin*2, r.getHeight()+margin*2)); 
+                paintRect.setRect(-margin, -margin, r.getWidth()+margin*2, r.getHeight()+margin*2);
+                g2d.draw(paintRect); 
                 
                 //draw drag box in the corner, if resizable and the 
                 if (o.isResizable() && passThruElement == null) {  
                     double dragBoxWidth = DRAG_BOX_SIZE / fields.zoom;
                     if (dragBoxWidth*2 < r.getWidth() || dragBoxWidth*2 < r.getHeight()) { //dont' draw drag box if shape is too small
-                        Rectangle2D box = new Rectangle2D.Double(r.getWidth()-dragBoxWidth, r.getHeight()-dragBoxWidth, dragBoxWidth, dragBoxWidth);
-                        g2d.setStroke(new BasicStroke(1.0f / (float)fields.zoom));
+                        paintRect.setRect(r.getWidth()-dragBoxWidth, r.getHeight()-dragBoxWidth, dragBoxWidth, dragBoxWidth);
+                        g2d.setStroke(getOverlayStroke(false));
                         g2d.setColor(Color.BLACK);  
-                        g2d.fill(box);
+                        g2d.fill(paintRect);
                         g2d.setColor(Color.WHITE);  
-                        g2d.draw(box);                      
+                        g2d.draw(paintRect);                      
                     }
                 }
                                
@@ -2285,8 +3074,10 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     
     
     private void elementSelected(ZElement e) {
+        invalidateLayerCache();
         e.select();
         lastSelectedElement = e;   
+        updateAnimationTimer();
         for (ZCanvasEventListener l : canvasEventListeners)
             l.elementSelected(e);
 
@@ -2330,20 +3121,11 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      */
     private ZElement getNext(ZElement toFind) {  
         
-        if (toFind == null)
+        int index = toFind == null ? -1 : fields.zElements.indexOf(toFind);
+        if (index < 0 || index == fields.zElements.size() - 1)
             return fields.zElements.getFirst();
         
-        Iterator<ZElement> it = fields.zElements.iterator();
-        while (it.hasNext()) {
-            ZElement e = it.next();
-            if (e.equals(toFind)) {
-                if (it.hasNext())
-                    return it.next();
-                else
-                    return fields.zElements.getFirst();
-            } 
-        }
-        return fields.zElements.getFirst();
+        return fields.zElements.get(index + 1);
     }
     
     /**
@@ -2353,20 +3135,11 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      */
     private ZElement getPrev(ZElement toFind) {  
         
-        if (toFind == null)
+        int index = toFind == null ? -1 : fields.zElements.indexOf(toFind);
+        if (index <= 0)
             return fields.zElements.getLast();
         
-        Iterator<ZElement> it = fields.zElements.descendingIterator();
-        while (it.hasNext()) {
-            ZElement e = it.next();
-            if (e.equals(toFind)) {
-                if (it.hasNext())
-                    return it.next();
-                else
-                    return fields.zElements.getLast();
-            } 
-        }
-        return fields.zElements.getLast();
+        return fields.zElements.get(index - 1);
     }
     
     /**
@@ -2431,6 +3204,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
      */
     public void selectAll() {
         
+        invalidateLayerCache();
         for (ZElement e : fields.zElements) {
             if (e.isSelectable()) {
                 e.select();
@@ -2440,6 +3214,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             }
         }
         
+        updateAnimationTimer();
         repaint();
     }
     
@@ -2459,6 +3234,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         passThruElement = null;
         selectedResizeElement = null;
         lastSelectedElement = null;
+        invalidateLayerCache();
+        updateAnimationTimer();
         for (ZCanvasEventListener l : canvasEventListeners)
             l.elementSelected(null);
 
@@ -2478,16 +3255,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
 
     }
     
-    @Override
-    public synchronized void paintComponent(Graphics g) {
-
-        super.paintComponent(g);  
-        Graphics2D g2d = (Graphics2D)g;
-        
-        DecimalFormat degreeFormat = new DecimalFormat("0.00\u00b0");
-          
-          
-        //Paint any rulers before scaling and translations
+    //Paint any rulers, before scaling and translations
+    private void paintRulers(Graphics2D g2d) {
         if (!printOn && !fields.rulersHidden && fields.horizontalRuler != null) {
             g2d.translate(fields.origin.x, 0); 
             fields.horizontalRuler.paint(g2d, (int)(SCALE*fields.zoom), getWidth(), getHeight());    
@@ -2498,10 +3267,10 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             fields.verticalRuler.paint(g2d, (int)(SCALE*fields.zoom), getWidth(), getHeight());    
             g2d.translate(0, -fields.origin.y);         
         }
-
-        g2d.translate(fields.origin.x, fields.origin.y);
-        g2d.scale(fields.zoom, fields.zoom);
-               
+    }
+    
+    //Paint the background, grid, and margins, after scaling and translations
+    private void paintPage(Graphics2D g2d) {
         if (fields.backgroundColor != null && !printOn) {
             g2d.setBackground(fields.backgroundColor);
             if (fields.pageSize != null)
@@ -2515,47 +3284,447 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         if (fields.margins != null && fields.marginsOn && !printOn) {
             g2d.setColor(Color.LIGHT_GRAY);
-            g2d.setStroke(new BasicStroke(0.5f));
+            g2d.setStroke(marginStroke);
             g2d.draw(fields.margins);
         }
-        
-        ArrayList<ZElement> selectedElements = new ArrayList<>();  //for speed - so we don't need to iterate twice
-        //Start from the deepest point in the stack, drawing elements up to the top z layer
-        Iterator<ZElement> it = fields.zElements.descendingIterator();  
-        while (it.hasNext()) {
-            ZElement o = it.next();
-            if (o.isSelected())
-                selectedElements.add(o);
+    }
+    
+    /**
+     * Paint the elements, starting from the deepest point in the stack, drawing elements up to the top z layer
+     * @param g2d the graphics context, after scaling and translations
+     * @param topFirst the elements to paint, ordered top layer first
+     * @param topLayer skip elements above this layer
+     * @param bottomLayer skip elements below this layer
+     * @param selected if not null, the selected elements painted are added to this list
+     */
+    private void paintElements(Graphics2D g2d, ArrayList<ZElement> topFirst, int topLayer, int bottomLayer, ArrayList<ZElement> selected) {
+        
+        boolean checkLayer = topLayer > 0 || bottomLayer < fields.zElements.size() - 1;
+        
+        Object lastDetail = g2d.getRenderingHint(LevelOfDetail.KEY);
+        LevelOfDetail detail = printOn || fullQuality ? null : levelOfDetail;  //printing and export are always full detail
+        if (lastDetail != detail)
+            g2d.setRenderingHint(LevelOfDetail.KEY, detail);
+        
+        Object lastInteractive = g2d.getRenderingHint(LevelOfDetail.INTERACTIVE_KEY);
+        Object interactive = interacting && !printOn ? Boolean.TRUE : null;
+        if (lastInteractive != interactive)
+            g2d.setRenderingHint(LevelOfDetail.INTERACTIVE_KEY, interactive);
+        if (interactive != null)
+            paintedInteractive = true;
+        
+        for (int i=topFirst.size()-1; i>=0; i--) {
+            ZElement o = topFirst.get(i);
+            if (checkLayer) {
+                int layer = getElementLayerPosition(o);
+                if (layer < topLayer || layer > bottomLayer)
+                    continue;
+            }
+            
+            if (selected != null && o.isSelected())
+                selected.add(o);
             
             if (!printOn || o.isPrintable())
                 paintElement(g2d, o, false); 
         }
-     
-        for (ZElement s : selectedElements)
-            paintElement(g2d, s, true); //apply highlights to selected elements
         
-        Font mouseFont = fields.mouseCoordFont.deriveFont((float)(fields.mouseCoordFont.getSize2D() / fields.zoom));
-        FontMetrics fontMetrics = g2d.getFontMetrics(mouseFont);
-        g2d.setFont(mouseFont);
+        if (lastDetail != detail)
+            g2d.setRenderingHint(LevelOfDetail.KEY, lastDetail);
+        if (lastInteractive != interactive)
+            g2d.setRenderingHint(LevelOfDetail.INTERACTIVE_KEY, lastInteractive);
+    }
+    
+    /**
+     * During a gesture, paint the cached layers above and below the selected elements, and only paint the selected elements (and any
+     * elements between them) live.  The layers are painted when first needed, or again if the view has changed.
+     * @param g2d the graphics context, before scaling and translations
+     * @param view the visible area of the canvas
+     * @param selectedElements the selected elements painted are added to this list
+     */
+    private void paintFromLayerCache(Graphics2D g2d, Rectangle view, ArrayList<ZElement> selectedElements) {
+        
+        AffineTransform device = g2d.getTransform();
+        
+        if (belowLayerCache == null || !view.equals(layerCacheView) || !fields.origin.equals(layerCacheOrigin) || layerCacheZoom != fields.zoom ||
+            layerCacheScaleX != device.getScaleX() || layerCacheScaleY != device.getScaleY())
+            paintLayerCache(g2d, view);
+        
+        g2d.drawImage(belowLayerCache, view.x, view.y, view.width, view.height, null);
+        
+        g2d.translate(fields.origin.x, fields.origin.y);
+        g2d.scale(fields.zoom, fields.zoom);
+
+        ArrayList<ZElement> live = getElementsToPaint(g2d.getClipBounds());
+        addPreviewedElements(live);
+        paintElements(g2d, live, layerCacheTop, layerCacheBottom, selectedElements);
+        
+        if (aboveLayerCache != null) {
+            AffineTransform world = g2d.getTransform();
+            g2d.setTransform(device);
+            g2d.drawImage(aboveLayerCache, view.x, view.y, view.width, view.height, null);
+            g2d.setTransform(world);
+        }
+    }
+    
+    //Paint everything except the range of layers holding the selected elements into the cached layers
+    private void paintLayerCache(Graphics2D g2d, Rectangle view) {
+        
+        invalidateLayerCache();
+        AffineTransform device = g2d.getTransform();
+        
+        layerCacheTop = -1;
+        layerCacheBottom = -1;
+        for (ZElement e : getSelectedElements()) {
+            int layer = getElementLayerPosition(e);
+            if (layerCacheTop < 0 || layer < layerCacheTop)
+                layerCacheTop = layer;
+            if (layer > layerCacheBottom)
+                layerCacheBottom = layer;
+        }
+        
+        belowLayerCache = createLayerImage(view, device);
+        Graphics2D g = createLayerGraphics(belowLayerCache, g2d, view, device);
+        paintRulers(g);
+        g.translate(fields.origin.x, fields.origin.y);
+        g.scale(fields.zoom, fields.zoom);
+        paintPage(g);
+        
+        ArrayList<ZElement> inView = getElementsToPaint(g.getClipBounds());
+        paintElements(g, inView, layerCacheBottom + 1, Integer.MAX_VALUE, null);
+        g.dispose();
+        
+        if (layerCacheTop > 0) {
+            aboveLayerCache = createLayerImage(view, device);
+            g = createLayerGraphics(aboveLayerCache, g2d, view, device);
+            g.translate(fields.origin.x, fields.origin.y);
+            g.scale(fields.zoom, fields.zoom);
+            paintElements(g, inView, 0, layerCacheTop - 1, null);
+            g.dispose();
+        }
+        
+        layerCacheView = new Rectangle(view);
+        layerCacheOrigin = new Point(fields.origin);
+        layerCacheZoom = fields.zoom;
+        layerCacheScaleX = device.getScaleX();
+        layerCacheScaleY = device.getScaleY();
+    }
+    
+    private BufferedImage createLayerImage(Rectangle view, AffineTransform device) {
+        int w = (int)Math.ceil(view.width * device.getScaleX());
+        int h = (int)Math.ceil(view.height * device.getScaleY());
+        
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc != null)
+            return gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        else
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    }
+    
+    //Create a graphics context on the layer image that matches the canvas graphics, in canvas coordinates
+    private Graphics2D createLayerGraphics(BufferedImage img, Graphics2D g2d, Rectangle view, AffineTransform device) {
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHints(g2d.getRenderingHints());
+        g.setFont(g2d.getFont());
+        g.scale(device.getScaleX(), device.getScaleY());
+        g.translate(-view.x, -view.y);
+        g.clipRect(view.x, view.y, view.width, view.height);
+        return g;
+    }
+    
+    /**
+     * Marks the area as needing the scene (rulers, page, and elements) to be repainted, then schedules the repaint.  All the repaint()
+     * variants end up here.  To repaint only the transient overlay, use repaintOverlay()
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (!moving) {
+            Rectangle r = new Rectangle(x, y, width, height);
+            sceneDamage = sceneDamage == null ? r : sceneDamage.union(r);
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+    
+    /**
+     * A viewport scrolls the canvas by moving it.  The scene is unchanged in canvas coordinates, so the repaint that follows a move only
+     * shifts the scene buffer and paints the newly exposed area.
+     */
+    @Override
+    public void setBounds(int x, int y, int width, int height) {
+        moving = width == getWidth() && height == getHeight();
+        try {
+            super.setBounds(x, y, width, height);
+        } finally {
+            moving = false;
+        }
+    }
+    
+    /**
+     * Repaint only where the overlay (selection highlights, crosshairs, and coordinates) was last painted and where it will be painted now. 
+     * The scene under it is copied from the scene buffer and not repainted.
+     */
+    private void repaintOverlay() {
+        
+        if (drawClient != null) {  //client could draw anywhere
+            super.repaint(0, 0, 0, getWidth(), getHeight());
+            return;
+        }
+        
+        ArrayList<Rectangle> regions = new ArrayList<>(overlayRegions);
+        ArrayList<ZElement> selectedElements = getSelectedElements();
+        paintOverlay(null, selectedElements, !selectedElements.isEmpty(), regions);
+        
+        for (Rectangle r : regions)
+            super.repaint(0, r.x, r.y, r.width, r.height);
+    }
+    
+    //Add the area, in scaled canvas coordinates, to the list of overlay regions, converted to canvas coordinates and padded for line widths
+    private void addOverlayRegion(List<Rectangle> regions, double x1, double y1, double x2, double y2) {
+        if (regions == null)
+            return;
+        int left = (int)Math.floor(Math.min(x1, x2) * fields.zoom + fields.origin.x) - 2;
+        int top = (int)Math.floor(Math.min(y1, y2) * fields.zoom + fields.origin.y) - 2;
+        int right = (int)Math.ceil(Math.max(x1, x2) * fields.zoom + fields.origin.x) + 2;
+        int bottom = (int)Math.ceil(Math.max(y1, y2) * fields.zoom + fields.origin.y) + 2;
+        regions.add(new Rectangle(left, top, right - left, bottom - top));
+    }
+    
+    private void paintOverlayString(Graphics2D g2d, FontMetrics fontMetrics, List<Rectangle> regions, String s, double x, double y) {
+        if (g2d != null)
+            paintString(g2d, s, x, y);
+        addOverlayRegion(regions, x, y - fontMetrics.getAscent(), x + fontMetrics.stringWidth(s), y + fontMetrics.getDescent());
+    }
+    
+    /**
+     * Paint the scene: the rulers, page, and the elements that fall within the clip
+     * @param g2d the graphics context, before scaling and translations.  Left scaled and translated.
+     * @param selectedElements the selected elements painted are added to this list
+     */
+    private void paintScene(Graphics2D g2d, ArrayList<ZElement> selectedElements) {
+        paintRulers(g2d);
+
+        g2d.translate(fields.origin.x, fields.origin.y);
+        g2d.scale(fields.zoom, fields.zoom);
+
+        paintPage(g2d);
+
+        paintElements(g2d, getElementsToPaint(g2d.getClipBounds()), 0, Integer.MAX_VALUE, selectedElements);
+    }
+    
+    /**
+     * Paints the scene from the scene buffer, first repainting any damaged area of the buffer.  When the view has only scrolled, the buffer
+     * is shifted and only the newly exposed area is painted.  The buffer is recreated if the view has otherwise changed.
+     * @param g2d the graphics context, before scaling and translations.  Left scaled and translated.
+     * @param view the visible area of the canvas
+     */
+    private void paintFromSceneBuffer(Graphics2D g2d, Rectangle view) {
+        
+        AffineTransform device = g2d.getTransform();
+        
+        if (sceneBuffer != null && !view.equals(sceneBufferView) && view.width == sceneBufferView.width && view.height == sceneBufferView.height &&
+            fields.origin.equals(sceneBufferOrigin) && sceneBufferZoom == fields.zoom && sceneBufferScaleX == device.getScaleX() && sceneBufferScaleY == device.getScaleY())
+            scrollSceneBuffer(g2d, view, device);
+        
+        if (sceneBuffer == null || !view.equals(sceneBufferView) || !fields.origin.equals(sceneBufferOrigin) || sceneBufferZoom != fields.zoom ||
+            sceneBufferScaleX != device.getScaleX() || sceneBufferScaleY != device.getScaleY()) {
+            if (sceneBuffer != null)
+                sceneBuffer.flush();
+            sceneBuffer = createLayerImage(view, device);
+            sceneBufferView = new Rectangle(view);
+            sceneBufferOrigin = new Point(fields.origin);
+            sceneBufferZoom = fields.zoom;
+            sceneBufferScaleX = device.getScaleX();
+            sceneBufferScaleY = device.getScaleY();
+            sceneDamage = new Rectangle(view);
+        }
+        
+        if (sceneDamage != null) {
+            Rectangle damage = sceneDamage;
+            sceneDamage = null;
+            paintSceneBuffer(g2d, view, device, damage);
+        }
+        
+        g2d.drawImage(sceneBuffer, view.x, view.y, view.width, view.height, null);
+        if (sceneHints != null)
+            g2d.setRenderingHints(sceneHints);
+        g2d.translate(fields.origin.x, fields.origin.y);
+        g2d.scale(fields.zoom, fields.zoom);
+    }
+    
+    
+    //Repaint an area of the scene buffer, given in canvas coordinates
+    private void paintSceneBuffer(Graphics2D g2d, Rectangle view, AffineTransform device, Rectangle area) {
+        
+        Rectangle damage = area.intersection(view);
+        if (damage.isEmpty())
+            return;
+        
+        Graphics2D g = createLayerGraphics(sceneBuffer, g2d, view, device);
+        g.clip(damage);
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(damage);
+        g.setComposite(AlphaComposite.SrcOver);
+        paintScene(g, null);
+        sceneHints = g.getRenderingHints();  //elements leave their hints set, keep the overlay drawn the same as over a directly painted scene
+        g.dispose();
+    }
+    
+    /**
+     * The view has scrolled without changing size.  Shift the scene buffer's pixels, including the rulers, to where they are in the new view 
+     * and paint only the strips that were exposed.  If the shift isn't a whole number of device pixels, or nothing remains in view, the buffer 
+     * is left to be recreated.
+     */
+    private void scrollSceneBuffer(Graphics2D g2d, Rectangle view, AffineTransform device) {
+        
+        int dx = sceneBufferView.x - view.x;  //how far the content moves, in canvas coordinates
+        int dy = sceneBufferView.y - view.y;
+        double deviceDx = dx * device.getScaleX();
+        double deviceDy = dy * device.getScaleY();
+        
+        if (Math.abs(dx) >= view.width || Math.abs(dy) >= view.height || deviceDx != Math.rint(deviceDx) || deviceDy != Math.rint(deviceDy))
+            return;
+        
+        Graphics2D g = sceneBuffer.createGraphics();
+        g.setComposite(AlphaComposite.Src);  //replace the pixels, the buffer is translucent
+        g.copyArea(0, 0, sceneBuffer.getWidth(), sceneBuffer.getHeight(), (int)deviceDx, (int)deviceDy);
+        g.dispose();
+        
+        Rectangle old = sceneBufferView;
+        sceneBufferView = new Rectangle(view);
+        
+        if (dx > 0)  //exposed on the left
+            paintSceneBuffer(g2d, view, device, new Rectangle(view.x, view.y, dx, view.height));
+        else if (dx < 0)  //exposed on the right
+            paintSceneBuffer(g2d, view, device, new Rectangle(old.x + old.width, view.y, -dx, view.height));
+        
+        if (dy > 0)  //exposed on the top
+            paintSceneBuffer(g2d, view, device, new Rectangle(view.x, view.y, view.width, dy));
+        else if (dy < 0)  //exposed on the bottom
+            paintSceneBuffer(g2d, view, device, new Rectangle(view.x, old.y + old.height, view.width, -dy));
+    }
+    
+    @Override
+    public synchronized void paintComponent(Graphics g) {
+
+        super.paintComponent(g);  
+        Graphics2D g2d = (Graphics2D)g;
+        
+        ArrayList<ZElement> selectedElements = new ArrayList<>();  
+        
+        Rectangle view = getVisibleRect();
+        if (printOn || view.isEmpty()) 
+            paintScene(g2d, selectedElements);
+        else if (gestureOn)
+            paintFromLayerCache(g2d, view, selectedElements);  //only the selected elements are painted live
+        else {
+            paintFromSceneBuffer(g2d, view);
+            ArrayList<ZElement> inClip = getElementsToPaint(g2d.getClipBounds());
+            for (int i=inClip.size()-1; i>=0; i--) {  //highlights are part of the overlay, which is painted over the buffer, bottom first
+                if (inClip.get(i).isSelected())
+                    selectedElements.add(inClip.get(i));
+            }
+        }
+        
+        boolean hasSelections = !selectedElements.isEmpty() || hasSelectedElements();  //some may be selected outside the clip
+        
+        paintOverlay(g2d, selectedElements, hasSelections, null);
+        
+        overlayRegions.clear();  //find the regions of the whole overlay, not just the part inside the clip
+        overlayRegionsDamaged = false;
+        paintOverlay(null, getSelectedElements(), hasSelections, overlayRegions);
+            
+        //Paint anything the client is drawing
+        if (drawClient != null) {
+            drawClient.drawClientPaint(g, mouseIn);
+        }
+        
+        for (ZCanvasEventListener l : canvasEventListeners)
+            l.canvasRepainted();
+        
+        
+    }
+    
+    
+    //The 1 pixel stroke for the overlay and highlights at the current zoom, dashed with the current alternating pattern if requested
+    private BasicStroke getOverlayStroke(boolean dashed) {
+        if (overlayStrokeZoom != fields.zoom) {
+            float width = 1.0f / (float)fields.zoom;
+            overlayStroke = new BasicStroke(width);
+            overlayDashedStroke = new BasicStroke(width, CAP_SQUARE, JOIN_MITER, 10.0f, dashedBorder, 0.0f);
+            overlayAltDashedStroke = new BasicStroke(width, CAP_SQUARE, JOIN_MITER, 10.0f, altDashedBorder, 0.0f);
+            overlayStrokeZoom = fields.zoom;
+        }
+        if (!dashed)
+            return overlayStroke;
+        return selectedAlternateBorder ? overlayDashedStroke : overlayAltDashedStroke;
+    }
+    
+    //The mouse coordinate font, scaled so it is the same size at any zoom, or null if there is none
+    private Font getOverlayFont() {
+        if (fields.mouseCoordFont == null)
+            return null;
+        if (overlayFont == null || overlayFontSource != fields.mouseCoordFont || overlayFontZoom != fields.zoom) {
+            overlayFont = fields.mouseCoordFont.deriveFont((float)(fields.mouseCoordFont.getSize2D() / fields.zoom));
+            overlayFontSource = fields.mouseCoordFont;
+            overlayFontZoom = fields.zoom;
+        }
+        return overlayFont;
+    }
+    
+    /**
+     * Paint the transient visuals over the scene: the selection highlights, crosshairs, coordinates, and drag box.  The areas covered 
+     * are added to the regions list, so that only these areas need to be repainted when these visuals change.
+     * @param g2d the graphics context, after scaling and translations.  If null, nothing is painted but the regions are still found.
+     * @param selectedElements the selected elements to highlight
+     * @param hasSelections true if any element is selected
+     * @param regions the list to add the areas to, in canvas coordinates, or null if they are not needed
+     */
+    private void paintOverlay(Graphics2D g2d, List<ZElement> selectedElements, boolean hasSelections, List<Rectangle> regions) {
+        
+        for (ZElement s : selectedElements) {
+            if (g2d != null)
+                paintElement(g2d, s, true); //apply highlights to selected elements
+            
+            Rectangle2D b = getHighlightBounds(s);
+            if (b != null)
+                addOverlayRegion(regions, b.getMinX(), b.getMinY(), b.getMaxX(), b.getMaxY());
+        }
+        
+        if (fields.mouseCoordFont == null && fields.mouseCursorColor == null)
+            return;
+        
+        Font mouseFont = getOverlayFont();
+        FontMetrics fontMetrics = mouseFont == null ? null : (g2d != null ? g2d.getFontMetrics(mouseFont) : getFontMetrics(mouseFont));
+        if (g2d != null && mouseFont != null)
+            g2d.setFont(mouseFont);
    
         //ELEMENT IS BEING DRAGGED - DRAW SELECTED HIGHLIGHT AND POSITION LINES/TEXT
-        if (selectedMouseDrag != null && !selectedElements.isEmpty() && lastSelectedElement != null) {
+        if (selectedMouseDrag != null && hasSelections && lastSelectedElement != null) {
                         
             
-            AffineTransform t = lastSelectedElement.getElementTransform(SCALE, false);
-            Point2D tMouse = t.transform(selectedMouseDrag, null);   
+            AffineTransform t = getPaintTransform(lastSelectedElement);
+            Point2D corner = selectedMouseDrag;
+            if (isPreviewed(lastSelectedElement)) {  //the previewed transform is from where the element was before the gesture
+                Point2D offset = getPreviewOffset(lastSelectedElement);
+                corner = new Point2D.Double(corner.getX() - offset.getX()*SCALE, corner.getY() - offset.getY()*SCALE);
+            }
+            Point2D tMouse = t.transform(corner, null);   
             
             //Draw crosshair
             if (fields.mouseCursorColor != null) {
-                g2d.setColor(fields.mouseCursorColor);
-                g2d.setStroke(new BasicStroke(1.0f / (float)fields.zoom, CAP_SQUARE, JOIN_MITER, 10.0f, selectedAlternateBorder ? dashedBorder : altDashedBorder, 0.0f));
-                g2d.drawLine(-fields.origin.x, (int)(tMouse.getY()), (int)(tMouse.getX()), (int)(tMouse.getY())); //horiz crosshair
-                g2d.drawLine((int)(tMouse.getX()), -fields.origin.y, (int)(tMouse.getX()), (int)(tMouse.getY())); //vert crosshair
+                if (g2d != null) {
+                    g2d.setColor(fields.mouseCursorColor);
+                    g2d.setStroke(getOverlayStroke(true));
+                    g2d.drawLine(-fields.origin.x, (int)(tMouse.getY()), (int)(tMouse.getX()), (int)(tMouse.getY())); //horiz crosshair
+                    g2d.drawLine((int)(tMouse.getX()), -fields.origin.y, (int)(tMouse.getX()), (int)(tMouse.getY())); //vert crosshair
+                }
+                addOverlayRegion(regions, -fields.origin.x, (int)(tMouse.getY()), (int)(tMouse.getX()), (int)(tMouse.getY()));
+                addOverlayRegion(regions, (int)(tMouse.getX()), -fields.origin.y, (int)(tMouse.getX()), (int)(tMouse.getY()));
             }
             
             //Draw Position string
             if (fields.mouseCoordFont != null) {
-                g2d.setColor(Color.BLACK);               
+                if (g2d != null)
+                    g2d.setColor(Color.BLACK);               
 
                 double xPos = tMouse.getX() - fields.zeroOffset.getX()*SCALE;
                 double yPos = tMouse.getY() - fields.zeroOffset.getY()*SCALE;
@@ -2564,50 +3733,65 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                 int stringX = (int)tMouse.getX() - (int)Math.ceil(fontMetrics.stringWidth(mouseCoord) + 10.0 /fields.zoom);
                 int stringY = (int)tMouse.getY() - (int)Math.ceil(10/fields.zoom);
                 
-                g2d.drawString(mouseCoord, stringX, stringY);
+                paintOverlayString(g2d, fontMetrics, regions, mouseCoord, stringX, stringY);
                                
-                String rotationString = degreeFormat.format(lastSelectedElement.getRotation());
+                double rotation = lastSelectedElement.getRotation() + (isPreviewed(lastSelectedElement) ? previewRotation : 0);
+                String rotationString = degreeFormat.format(((rotation % 360.0) + 360.0) % 360.0);
                 stringX = (int)tMouse.getX() - (int)Math.ceil(fontMetrics.stringWidth(rotationString) + 10.0 /fields.zoom);
                 stringY = (int)tMouse.getY() + (int)Math.ceil(10/fields.zoom) + fontMetrics.getHeight();
 
-                g2d.drawString(rotationString, stringX, stringY);
+                paintOverlayString(g2d, fontMetrics, regions, rotationString, stringX, stringY);
             }
 
         }
         
         //Draw Resize String
         if (selectedElementResizeOn && mouseIn != null && lastSelectedElement != null && fields.mouseCoordFont != null) {
-            g2d.setColor(Color.BLACK);
+            if (g2d != null)
+                g2d.setColor(Color.BLACK);
             Rectangle2D bounds = lastSelectedElement.getBounds2D();
             String mouseCoord = fields.unit.format(bounds.getWidth(), false) + " x " + fields.unit.format(bounds.getHeight(), true);
             
-            paintString(g2d, mouseCoord, mouseIn.getX() + DRAG_BOX_SIZE*2/(float)fields.zoom, mouseIn.getY() + DRAG_BOX_SIZE*2/(float)fields.zoom);
+            paintOverlayString(g2d, fontMetrics, regions, mouseCoord, mouseIn.getX() + DRAG_BOX_SIZE*2/(float)fields.zoom, mouseIn.getY() + DRAG_BOX_SIZE*2/(float)fields.zoom);
             
         }
         
         
         //When nothing selected, draw the mouse
-        if (!printOn && mouseIn != null && selectedElements.isEmpty() && mouseIn.getX() >= 0 && mouseIn.getY() >= 0) {  
+        if (!printOn && mouseIn != null && !hasSelections && mouseIn.getX() >= 0 && mouseIn.getY() >= 0) {  
                         
             //Draw crosshair
             if (fields.mouseCursorColor != null) {
-                g2d.setColor(fields.mouseCursorColor);
-                g2d.setStroke(new BasicStroke(1.0f / (float)fields.zoom));
-                g2d.draw(new Line2D.Double(-fields.origin.x, mouseIn.getY(), getMaxWidth(), mouseIn.getY())); //horiz crosshair
-                g2d.draw(new Line2D.Double(mouseIn.getX(), -fields.origin.y, mouseIn.getX(), getMaxHeight())); //vert crosshair
+                if (g2d != null) {
+                    g2d.setColor(fields.mouseCursorColor);
+                    g2d.setStroke(getOverlayStroke(false));
+                }
+                paintLine.setLine(-fields.origin.x, mouseIn.getY(), getMaxWidth(), mouseIn.getY());  //horiz crosshair
+                if (g2d != null)
+                    g2d.draw(paintLine);
+                addOverlayRegion(regions, paintLine.getX1(), paintLine.getY1(), paintLine.getX2(), paintLine.getY2());
+                
+                paintLine.setLine(mouseIn.getX(), -fields.origin.y, mouseIn.getX(), getMaxHeight());  //vert crosshair
+                if (g2d != null)
+                    g2d.draw(paintLine);
+                addOverlayRegion(regions, paintLine.getX1(), paintLine.getY1(), paintLine.getX2(), paintLine.getY2());
             }
 
             Rectangle2D dragRect = getDragSelectRectangle();
 
             if (mouseDrag != null) {
-                g2d.setColor(Color.BLACK);
-                g2d.setStroke(new BasicStroke(1.0f / (float)fields.zoom));
-                g2d.draw(dragRect);
+                if (g2d != null) {
+                    g2d.setColor(Color.BLACK);
+                    g2d.setStroke(getOverlayStroke(false));
+                    g2d.draw(dragRect);
+                }
+                addOverlayRegion(regions, dragRect.getMinX(), dragRect.getMinY(), dragRect.getMaxX(), dragRect.getMaxY());
             }
             
             //Draw mouse position or drag box size
             if (fields.mouseCoordFont != null) {
-                g2d.setColor(Color.BLACK);
+                if (g2d != null)
+                    g2d.setColor(Color.BLACK);
                 String s;
                 String measString = null;
                 if (mouseDrag == null) {
@@ -2623,25 +3807,16 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                 }
                 double x = mouseIn.getX() + (int)Math.ceil(10.0 /fields.zoom);
                 double y = mouseIn.getY() + (int)Math.ceil(fontMetrics.getHeight() + 10.0 /fields.zoom);
-                paintString(g2d, s, x, y);
+                paintOverlayString(g2d, fontMetrics, regions, s, x, y);
                 if (measString != null)
-                    paintString(g2d, measString, x, y + (int)Math.ceil(fontMetrics.getHeight() + 10.0 /fields.zoom));
+                    paintOverlayString(g2d, fontMetrics, regions, measString, x, y + (int)Math.ceil(fontMetrics.getHeight() + 10.0 /fields.zoom));
             }
   
             
         }
-            
-        //Paint anything the client is drawing
-        if (drawClient != null) {
-            drawClient.drawClientPaint(g, mouseIn);
-        }
-        
-        for (ZCanvasEventListener l : canvasEventListeners)
-            l.canvasRepainted();
-        
-        
     }
 
+
  
     public void editElement() {
         
@@ -2671,19 +3846,17 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         //Select the pointed object, if there is one
         //See if the mouse click was within the bounds of any component, checking upper objects before moving down the z stack
-        Iterator<ZElement> it = fields.zElements.iterator();
-        while (it.hasNext()) {
-            ZElement o = it.next();
+        for (ZElement o : queryElements(new Rectangle2D.Double(mouseLoc.getX(), mouseLoc.getY(), 0, 0))) {
             if (!o.isSelectable()) //don't select anything that's unselectable
                 continue;
                                    
             if (o.isSelected() && altPressed)  //ignore selected objects when alt pressed
                 continue;
             
-            Rectangle2D boundsBox = o.getBounds2D(SCALE);
+            Rectangle2D boundsBox = o.getCachedBounds2D(SCALE);
 
             Point2D lowerRightCorner = new Point2D.Double(boundsBox.getX() + boundsBox.getWidth(), boundsBox.getY() + boundsBox.getHeight());
-            AffineTransform t = o.getElementTransform(SCALE, false);
+            AffineTransform t = o.getCachedElementTransform(SCALE, false);
                        
             Shape boundsShape = t.createTransformedShape(boundsBox);  //not a shape, see if the bounds box contains it            
 
@@ -2714,12 +3887,14 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                         selectNone();  
                         
                     o.select();
+                    updateAnimationTimer();
                     repaint();
                         
                 } else {  //element was already selected
                     
                     if (shiftPressed) {  //deselect this
                         o.deselect();
+                        updateAnimationTimer();
                         
                         if (passThruElement == o)
                             passThruElement = null;
@@ -2782,7 +3957,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         if (passThruElement == null)
             return false;
                 
-        AffineTransform elementTransform = passThruElement.getElementTransform(SCALE, true);
+        AffineTransform elementTransform = passThruElement.getCachedElementTransform(SCALE, true);
         Point2D transformedMouse = elementTransform.transform(getScaledMouse(e), null);
         Point2D position = passThruElement.getPosition(SCALE);
 
@@ -2877,6 +4052,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     public void mousePressed(MouseEvent e) {
         
         this.requestFocusInWindow();
+        applyPendingInput();  //finish any drag or wheel before the press
         
         if (mouseFirstPressed < 0)
             mouseFirstPressed = System.nanoTime();
@@ -2885,6 +4061,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         Point2D mouseLoc = getScaledMouse(e);
         mousePress = mouseLoc;
         
+        endGesture();  //any wheel gesture is done
+        
         if (drawClient != null) {
             drawClient.drawClientMousePressed(mouseLoc, e);
             repaint();
@@ -2923,6 +4101,8 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     @Override
     public void mouseReleased(MouseEvent e) {
         
+        applyPendingInput();  //the drag ends where the mouse was released
+        
         if (drawClient != null) {
             drawClient.drawClientMouseReleased(getScaledMouse(e), e);
             repaint();
@@ -2939,17 +4119,11 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             
             Rectangle2D dragSelect = getDragSelectRectangle();
             
-            Iterator<ZElement> it = fields.zElements.iterator();
-            while (it.hasNext()) {
-                ZElement o = it.next();
+            for (ZElement o : queryElements(dragSelect)) {  //only the elements that overlap the drag box, top layer first
                 if (!o.isSelectable()) //don't select anything that's unselectable
                     continue;
                 
-                Rectangle2D boundsBox = o.getBounds2D(SCALE);
-                AffineTransform t = o.getElementTransform(SCALE, false);
-                Shape s = t.createTransformedShape(boundsBox);
-                
-                if (dragSelect.contains(s.getBounds()))
+                if (dragSelect.contains(o.getTransformedBounds2D(SCALE).getBounds()))
                     selectElement(o, false);
             }
             
@@ -2963,6 +4137,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         mouseFirstPressed = -1;
         selectedElementResizeOn = false;
         
+        endGesture();
         repaint();
     }
 
@@ -2970,7 +4145,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     public synchronized void mouseEntered(MouseEvent e) {
         changeCursor(currentCursor);
         mouseIn = getScaledMouse(e);
-        repaint();
+        repaintOverlay();
     }
 
 
@@ -2978,7 +4153,7 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
     public synchronized void mouseExited(MouseEvent e) {
         changeCursor(Cursor.getDefaultCursor());
         mouseIn = null;
-        repaint();
+        repaintOverlay();
     }
 
     @Override
@@ -3002,9 +4177,18 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             return;
         }
         
+        pendingDrag = mouseLoc;
+        scheduleFrame();
+    }
+    
+    //Move or resize the selected elements, or extend the drag select box, to the mouse location
+    private void applyDrag(Point2D mouseLoc) {
+        
         //If element selected and mouse is within the canvas
         if (lastSelectedElement != null && mouseLoc.getX() < getMaxWidth() && mouseLoc.getY() < getMaxHeight())  {      
                 
+            beginGesture();
+            interacted();
             
             if (!selectedElementResizeOn) { //Reposition all selected based on the delta move of the last selected object
                 
@@ -3013,7 +4197,10 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
                                    
                     double xDelta = (mouseLoc.getX() - selectedObj_dragPosition.getX())/SCALE;
                     double yDelta = (mouseLoc.getY() - selectedObj_dragPosition.getY())/SCALE;
-                    moveSelected(xDelta, yDelta);
+                    if (gesturePreview)
+                        changePreview(xDelta, yDelta, 0, 0, 0);
+                    else
+                        moveSelected(xDelta, yDelta);
                     
                     selectedObj_dragPosition = mouseLoc;
                     
@@ -3056,13 +4243,14 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
             mouseDrag = mouseLoc;
 
         }
-        repaint();  //update selected object
+        repaintOverlay();  //moved or resized elements report their own damage
     }
 
     @Override
     public void mouseMoved(MouseEvent e) {
         mouseIn = getScaledMouse(e);
-        repaint();
+        pendingMove = true;
+        scheduleFrame();
     }
 
     @Override
@@ -3083,34 +4271,117 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         if (!isWheelOn())
             return;
             
-        ArrayList<ZElement> selectedElements = getSelectedElements();
-    
-        if (!selectedElements.isEmpty()) {
+        if (hasSelectedElements()) {
             if (System.nanoTime() - mouseWheelLastMoved > 1000000000) {
+                applyPendingInput();  //the saved context includes any rotation still pending
                 undoStack.saveContext(fields.zElements);
             }
             
-            for (ZElement selectedElement : selectedElements) {
-                if (!shiftPressed && !shearXPressed && !shearYPressed) {
-                    double increase = e.getPreciseWheelRotation() * SIZE_INCREASE_MULTIPLIER * scrollWheelMultiplier;
-                    selectedElement.increaseSizeMaintainAspect(increase, DRAG_BOX_SIZE, SCALE);
-                }
-                else if (shiftPressed && !shearXPressed && !shearYPressed) {       
-                    selectedElement.rotate(e.getPreciseWheelRotation() * ROTATION_MULTIPLIER * scrollWheelMultiplier);
-                }
-                else if (shearXPressed) {
-                    selectedElement.shearX(e.getPreciseWheelRotation() * SHEAR_MULTIPLIER * scrollWheelMultiplier);
-                }
-                else if (shearYPressed) {
-                    selectedElement.shearY(e.getPreciseWheelRotation() * SHEAR_MULTIPLIER * scrollWheelMultiplier);
-                }
-            }
+            beginGesture();
+            wheelGestureTimer.restart();  //gesture ends when the wheel is idle
+            interacted();
+            
+            WheelAction action;
+            if (shearXPressed)
+                action = WheelAction.SHEAR_X;
+            else if (shearYPressed)
+                action = WheelAction.SHEAR_Y;
+            else if (shiftPressed)
+                action = WheelAction.ROTATE;
+            else
+                action = WheelAction.SIZE;
+            
+            if (pendingWheelAction != null && pendingWheelAction != action)  //modifier keys changed, apply the rotation so far first
+                applyPendingInput();
+            
+            pendingWheelAction = action;
+            pendingWheelRotation += e.getPreciseWheelRotation();
             
             mouseWheelLastMoved = System.nanoTime();
-            repaint();
+            scheduleFrame();
         }
 
     }
+    
+    //Size, rotate, or shear the selected elements by the accumulated wheel rotation
+    private void applyWheel(WheelAction action, double rotation) {
+        
+        if (gesturePreview && action != WheelAction.SIZE) {
+            switch (action) {
+                case ROTATE:
+                    changePreview(0, 0, rotation * ROTATION_MULTIPLIER * scrollWheelMultiplier, 0, 0);
+                    break;
+                case SHEAR_X:
+                    changePreview(0, 0, 0, rotation * SHEAR_MULTIPLIER * scrollWheelMultiplier, 0);
+                    break;
+                case SHEAR_Y:
+                    changePreview(0, 0, 0, 0, rotation * SHEAR_MULTIPLIER * scrollWheelMultiplier);
+                    break;
+            }
+            return;
+        }
+        
+        for (ZElement selectedElement : getSelectedElements()) {
+            switch (action) {
+                case SIZE:
+                    selectedElement.increaseSizeMaintainAspect(rotation * SIZE_INCREASE_MULTIPLIER * scrollWheelMultiplier, DRAG_BOX_SIZE, SCALE);
+                    break;
+                case ROTATE:
+                    selectedElement.rotate(rotation * ROTATION_MULTIPLIER * scrollWheelMultiplier);
+                    break;
+                case SHEAR_X:
+                    selectedElement.shearX(rotation * SHEAR_MULTIPLIER * scrollWheelMultiplier);
+                    break;
+                case SHEAR_Y:
+                    selectedElement.shearY(rotation * SHEAR_MULTIPLIER * scrollWheelMultiplier);
+                    break;
+            }
+        }
+        
+        repaintOverlay();  //changed elements report their own damage
+    }
+    
+    //Apply the pending input now if a frame has passed since input was last applied, otherwise when the next frame is due
+    private void scheduleFrame() {
+        
+        if (frameTimer.isRunning())  //already waiting for the next frame
+            return;
+        
+        long wait = frameRate == 0 ? 0 : 1000 / frameRate - (System.nanoTime() - lastFrameTime) / 1000000;
+        if (wait <= 0)
+            applyPendingInput();
+        else {
+            frameTimer.setInitialDelay((int)wait);
+            frameTimer.start();
+        }
+    }
+    
+    //Apply the drag, wheel rotation, and mouse movement accumulated since the last frame
+    private void applyPendingInput() {
+        
+        frameTimer.stop();
+        lastFrameTime = System.nanoTime();
+        
+        if (pendingWheelAction != null) {
+            WheelAction action = pendingWheelAction;
+            pendingWheelAction = null;
+            double rotation = pendingWheelRotation;
+            pendingWheelRotation = 0;
+            applyWheel(action, rotation);
+        }
+        
+        if (pendingDrag != null) {
+            Point2D mouseLoc = pendingDrag;
+            pendingDrag = null;
+            pendingMove = false;
+            applyDrag(mouseLoc);  //repaints the overlay
+        }
+        
+        if (pendingMove) {
+            pendingMove = false;
+            repaintOverlay();
+        }
+    }
 
     /**
      * For all elements on the canvas, checks to see if there are unsaved changes
@@ -3322,12 +4593,14 @@ public class ZCanvas extends JComponent implements Printable, MouseListener, Mou
         
         RepaintManager currentManager = RepaintManager.currentManager(this);
 
+        printOn = true;  //full detail, not from the render cache
         currentManager.setDoubleBufferingEnabled(false);
         for (ZElement e : selectedElements) {
             if (e.isPrintable())
                 this.paintElement(g, e, false);
         }
         currentManager.setDoubleBufferingEnabled(true);
+        printOn = false;
 
         g.dispose();
         return bi; 
@@ -0,0 +1,225 @@
+
+package com.github.kkieffer.jzeld.adapters;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An encoded image, in a file or in memory, that is decoded on demand a region at a time and at a reduced resolution, using any
+ * format ImageIO can read.  Large images are held in the ImageStore as a reduced proxy for display, and decoded from their source
+ * at full resolution only for the region being printed or exported.
+ *
+ * A file source must not change while images from it are in use.  When serialized, a file source is written as its path and an
+ * in-memory source as its bytes.
+ *
+ * @author kkieffer
+ */
+public class ImageSource implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;  //the file holding the encoded image, or null if held in memory
+    private final byte[] data;  //the encoded image, or null if in a file
+    private final int width;
+    private final int height;
+    transient private String key;  //computed when first needed
+
+    private ImageSource(File file, byte[] data) throws IOException {
+        this.file = file;
+        this.data = data;
+
+        ImageInputStream in = open();
+        try {
+            ImageReader reader = getReader(in);
+            try {
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create a source from an image file, reading only its header
+     * @param f the file
+     * @return the source
+     * @throws IOException if the file can't be read or is not in a format ImageIO can read
+     */
+    public static ImageSource fromFile(File f) throws IOException {
+        return new ImageSource(f, null);
+    }
+
+    /**
+     * Create a source from an encoded image held in memory
+     * @param data the bytes of the encoded image, which must not be modified afterwards
+     * @return the source
+     * @throws IOException if the image is not in a format ImageIO can read
+     */
+    public static ImageSource fromBytes(byte[] data) throws IOException {
+        return new ImageSource(null, data);
+    }
+
+    /**
+     * Get the width of the full resolution image
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the full resolution image
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the length of the encoded image
+     * @return the length of the file, or of the bytes held in memory
+     */
+    public long getLength() {
+        return data != null ? data.length : file.length();
+    }
+
+    /**
+     * Get part of the encoded image, so that a large file can be copied without reading it into memory at once
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws IOException if the file can't be read
+     */
+    public byte[] getBytes(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        if (data != null) {
+            System.arraycopy(data, (int)offset, bytes, 0, length);
+            return bytes;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(offset);
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the memory held by the source
+     * @return the size of the encoded image held in memory, in bytes
+     */
+    public long getMemoryEstimate() {
+        return data != null ? data.length : 0;
+    }
+
+    /**
+     * Get the key that identifies the source in the ImageStore, from its encoded bytes, so that a file and the same image loaded back
+     * from a save into memory have the same key.  A file is read once to compute it.
+     * @return the size and hash of the encoded bytes
+     * @throws IOException if the file can't be read
+     */
+    synchronized String getKey() throws IOException {
+        if (key != null)
+            return key;
+
+        long hash = 0xcbf29ce484222325L;
+        long length;
+        if (data != null) {
+            for (byte b : data)
+                hash = (hash ^ b) * 0x100000001b3L;
+            length = data.length;
+        }
+        else {
+            length = 0;
+            byte[] buf = new byte[65536];
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    for (int i = 0; i < n; i++)
+                        hash = (hash ^ buf[i]) * 0x100000001b3L;
+                    length += n;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        key = "source:" + length + "-" + Long.toHexString(hash);
+        return key;
+    }
+
+    /**
+     * Find the subsampling that reduces the image to no more than the number of pixels
+     * @param maxPixels the largest number of pixels
+     * @return the number of source pixels per decoded pixel in each direction, 1 for full resolution
+     */
+    public int getSubsampling(long maxPixels) {
+        int sub = 1;
+        while ((long)((width + sub - 1) / sub) * ((height + sub - 1) / sub) > maxPixels)
+            sub++;
+        return sub;
+    }
+
+    /**
+     * Decode a region of the image
+     * @param region the region to decode, in full resolution pixels, or null for the whole image
+     * @param subsampling decode every nth pixel in each direction, 1 for full resolution
+     * @return the decoded image, in full resolution pixels divided by the subsampling
+     * @throws IOException if the image can't be read
+     */
+    public BufferedImage read(Rectangle region, int subsampling) throws IOException {
+        if (subsampling < 1)
+            throw new IllegalArgumentException("Subsampling must be at least 1");
+
+        ImageInputStream in = open();
+        try {
+            ImageReader reader = getReader(in);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (region != null)
+                    param.setSourceRegion(region);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private ImageInputStream open() throws IOException {
+        ImageInputStream in = data != null ? ImageIO.createImageInputStream(new ByteArrayInputStream(data)) : ImageIO.createImageInputStream(file);
+        if (in == null)
+            throw new IOException("Unable to open image " + (file != null ? file.getName() : ""));
+        return in;
+    }
+
+    private static ImageReader getReader(ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext())
+            throw new IOException("Unsupported image format");
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+}
@@ -0,0 +1,465 @@
+
+package com.github.kkieffer.jzeld.adapters;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import javax.imageio.ImageIO;
+import javax.xml.bind.Marshaller;
+
+/**
+ * A store of the images held by SerializableImages, shared across the JVM.  Images are identified by their type and a hash of their
+ * pixel data, and images of the same type with the same pixels share one Entry, so pasting an image many times or loading a file that
+ * repeats an image holds its pixels once.  An entry is held as long as some SerializableImage refers to it, and dropped from the store
+ * once none do.
+ *
+ * Images imported from an ImageSource are held as a reduced proxy, no larger than DEFAULT_PROXY_PIXELS unless otherwise requested, and
+ * keyed by a hash of their encoded bytes rather than their pixels.
+ *
+ * While a save is in progress, images already written are written again only as a reference to their key.
+ *
+ * @author kkieffer
+ */
+public class ImageStore {
+
+    /**
+     * The largest number of pixels, about 2300 x 1700, held for an image imported from an ImageSource
+     */
+    public static final long DEFAULT_PROXY_PIXELS = 4000000;
+
+    /**
+     * A handle to an image in the store.  The image must not be modified, because it is shared.  When serialized, the image is written once
+     * per stream however many SerializableImages share the entry, and when deserialized it is matched to the entries already in the store.
+     * An image from an ImageSource is written as its source.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        transient private BufferedImage image;  //the image, or its proxy if from a source
+        transient private String key;
+        transient private ImageSource source;  //the source the image was reduced from, or null
+        transient private ArrayList<SoftReference<BufferedImage>> levels;  //each half the size of the one before, the first half the image
+        transient private long proxyPixels;  //when deserialized from a source, the size of the proxy to decode
+
+        private Entry(BufferedImage image, String key, ImageSource source) {
+            this.image = image;
+            this.key = key;
+            this.source = source;
+        }
+
+        /**
+         * Get the image, which is a reduced proxy if the image is from a source
+         * @return the image
+         */
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * Get the source of the image
+         * @return the source, or null if the image was not imported from a source
+         */
+        public ImageSource getSource() {
+            return source;
+        }
+
+        /**
+         * True if the image is a proxy with fewer pixels than its source
+         * @return true if reduced
+         */
+        public boolean isReduced() {
+            return source != null && image.getWidth() < source.getWidth();
+        }
+
+        /**
+         * Get the image reduced for drawing at a size, from a pyramid of levels each half the size of the one above it.  Levels are
+         * built when first needed and released when memory runs short.
+         * @param width the width the image is drawn at, in device pixels
+         * @param height the height the image is drawn at, in device pixels
+         * @return the smallest level at least as large as the size, or the image itself if drawn larger than half its size
+         */
+        public synchronized BufferedImage getLevel(double width, double height) {
+            BufferedImage level = image;
+            for (int i = 0; level.getWidth() / 2 >= width && level.getHeight() / 2 >= height; i++)
+                level = getLevel(i, level);
+            return level;
+        }
+
+        //Get the level, reducing it from the one above if it hasn't been built or was released
+        private BufferedImage getLevel(int i, BufferedImage above) {
+            if (levels == null)
+                levels = new ArrayList<>();
+
+            BufferedImage level = i < levels.size() ? levels.get(i).get() : null;
+            if (level == null) {
+                //At exactly half size, bilinear interpolation averages each 2x2 block of pixels
+                level = new BufferedImage(above.getWidth() / 2, above.getHeight() / 2, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = level.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(above, 0, 0, level.getWidth(), level.getHeight(), 0, 0, level.getWidth() * 2, level.getHeight() * 2, null);
+                g.dispose();
+
+                SoftReference<BufferedImage> ref = new SoftReference<>(level);
+                if (i < levels.size())
+                    levels.set(i, ref);
+                else
+                    levels.add(ref);
+            }
+            return level;
+        }
+
+        /**
+         * Get the key that identifies the image, from its size, its type, and the hash of its pixel data
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeObject(source);
+            if (source == null) {
+                out.writeObject(key);  //the image may be read back as another type, with another key
+                ImageIO.write(image, "png", out);
+            }
+            else
+                out.writeLong((long)image.getWidth() * image.getHeight());  //the proxy size to restore
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            source = (ImageSource)in.readObject();
+            if (source == null) {
+                key = (String)in.readObject();
+                image = ImageIO.read(in);
+            }
+            else
+                proxyPixels = in.readLong();
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            if (source == null)
+                return internLoaded(image, key);
+            try {
+                return intern(source, proxyPixels);
+            } catch (IOException ex) {
+                throw new InvalidObjectException("Unable to read image source: " + ex.getMessage());
+            }
+        }
+    }
+
+    //Removes the entry from the store when it is no longer referenced
+    private static class EntryReference extends WeakReference<Entry> {
+        private final String key;
+
+        private EntryReference(Entry e, String key, ReferenceQueue<Entry> queue) {
+            super(e, queue);
+            this.key = key;
+        }
+    }
+
+    private static final HashMap<String, EntryReference> entries = new HashMap<>();
+    private static final HashMap<String, EntryReference> savedKeys = new HashMap<>();  //the key an image was saved with, if loaded as another type
+    private static final ReferenceQueue<Entry> released = new ReferenceQueue<>();
+    private static final ThreadLocal<Save> saved = new ThreadLocal<>();  //the save in progress on this thread
+    
+    //A save in progress: the marshaller writing it, and the holder that wrote each image so far.  Held weakly, so a save that failed
+    //before it ended holds no images.
+    private static final class Save {
+        private final WeakReference<Marshaller> marshaller;
+        private final WeakHashMap<Entry, WeakReference<SerializableImage>> writers = new WeakHashMap<>();
+        
+        private Save(Marshaller marshaller) {
+            this.marshaller = new WeakReference<>(marshaller);
+        }
+        
+        private SerializableImage getWriter(Entry e) {
+            WeakReference<SerializableImage> writer = writers.get(e);
+            return writer == null ? null : writer.get();
+        }
+    }
+
+    private ImageStore() {}
+
+    /**
+     * Find the entry holding an image with the same pixels, or add the image to the store if there is none
+     * @param image the image to find, may be null
+     * @param copy true to store a copy of the image, if it is added, so that the caller can continue to modify theirs
+     * @return the entry for the image, or null if the image is null
+     */
+    public static synchronized Entry intern(BufferedImage image, boolean copy) {
+        if (image == null)
+            return null;
+
+        purge();
+
+        String key = getKey(image);
+        Entry existing = get(key);
+        if (existing != null) {
+            if (existing.image == image || sameData(existing.image, image))
+                return existing;
+            return new Entry(copy ? SerializableImage.copyImage(image) : image, key, null);  //different pixels with the same hash, not shared
+        }
+
+        Entry e = new Entry(copy ? SerializableImage.copyImage(image) : image, key, null);
+        entries.put(key, new EntryReference(e, key, released));
+        return e;
+    }
+
+    /**
+     * Find the entry for an image that was loaded, which may be of a different type than the image it was saved from.  If the saved
+     * image is still in the store, it is used, otherwise the loaded image is added and can also be found by the key it was saved with.
+     * @param image the loaded image, may be null
+     * @param savedKey the key of the image when it was saved, or null if not known
+     * @return the entry for the image, or null if the image is null
+     */
+    static synchronized Entry internLoaded(BufferedImage image, String savedKey) {
+        if (image == null)
+            return null;
+        
+        if (savedKey != null) {
+            Entry saved = getReferenced(savedKey);
+            if (saved != null && saved.source == null && samePixels(saved.image, image))
+                return saved;
+        }
+        
+        Entry e = intern(image, false);
+        if (savedKey != null && !savedKey.equals(e.key))
+            savedKeys.put(savedKey, new EntryReference(e, savedKey, released));
+        return e;
+    }
+    
+    /**
+     * Find the entry for the source, or add the source to the store if there is none, decoding a proxy for it
+     * @param source the source of the image
+     * @param maxPixels the largest number of pixels to decode for the proxy
+     * @return the entry for the source
+     * @throws IOException if the source can't be read
+     */
+    public static synchronized Entry intern(ImageSource source, long maxPixels) throws IOException {
+        purge();
+
+        String key = source.getKey();
+        Entry existing = get(key);
+        if (existing != null)
+            return existing;
+
+        //Decode the proxy as an int RGB or ARGB image, the types used for images held by elements
+        BufferedImage proxy = source.read(null, source.getSubsampling(maxPixels));
+        int type = proxy.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (proxy.getType() != type)
+            proxy = SerializableImage.resizeImage(proxy, proxy.getWidth(), proxy.getHeight(), type);
+
+        Entry e = new Entry(proxy, key, source);
+        entries.put(key, new EntryReference(e, key, released));
+        return e;
+    }
+
+    /**
+     * Find the entry with the key
+     * @param key the key of the image
+     * @return the entry, or null if there is no image in the store with that key
+     */
+    public static synchronized Entry get(String key) {
+        EntryReference ref = entries.get(key);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Find the entry referred to by a key in a save, which is either its own key or the key of the image it was loaded from
+     * @param key the key of the image
+     * @return the entry, or null if there is no image in the store with that key
+     */
+    static synchronized Entry getReferenced(String key) {
+        Entry e = get(key);
+        if (e != null)
+            return e;
+        EntryReference ref = savedKeys.get(key);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Get the number of distinct images held in the store
+     * @return the number of images
+     */
+    public static synchronized int size() {
+        purge();
+        return entries.size();
+    }
+
+    /**
+     * Start a save on this thread, after which each shared image is written once and referred to by its key afterwards.  Any earlier
+     * save on this thread that did not end, because marshalling failed, is discarded.
+     * @param m the marshaller writing the save
+     */
+    public static void beginSave(Marshaller m) {
+        saved.set(new Save(m));
+    }
+
+    /**
+     * Finish the save on this thread
+     */
+    public static void endSave() {
+        saved.remove();
+    }
+    
+    /**
+     * Discard the save in progress on this thread if it is not being written by the marshaller, because it failed before it ended
+     * @param m the marshaller writing an image
+     */
+    static void checkSave(Marshaller m) {
+        Save s = saved.get();
+        if (s != null && s.marshaller.get() != m)
+            saved.remove();
+    }
+
+    /**
+     * Get the key to refer to an image already written by another SerializableImage in the save in progress on this thread
+     * @param e the entry
+     * @param holder the SerializableImage being saved
+     * @return the key, or null if the holder must write the image itself
+     */
+    static String getSavedKey(Entry e, SerializableImage holder) {
+        Save s = saved.get();
+        if (s == null)
+            return null;
+        SerializableImage writer = s.getWriter(e);
+        return writer != null && writer != holder ? e.key : null;
+    }
+
+    /**
+     * Marks the image as written by the holder in the save in progress on this thread, so later holders can refer to it by key
+     * @param e the entry
+     * @param holder the SerializableImage being saved
+     * @return true if the holder writes the image, false if it was written by another
+     */
+    static boolean setSaved(Entry e, SerializableImage holder) {
+        Save s = saved.get();
+        if (s == null || get(e.key) != e)  //only entries that can be found from their key when loaded are referred to
+            return true;
+        SerializableImage writer = s.getWriter(e);
+        if (writer == null) {
+            s.writers.put(e, new WeakReference<>(holder));
+            return true;
+        }
+        return writer == holder;
+    }
+
+    /**
+     * Get the key to write with an image the holder writes in the save in progress on this thread, so that references to it can be
+     * matched to it when loaded, even if it is loaded as another type
+     * @param e the entry
+     * @param holder the SerializableImage being saved
+     * @return the key, or null if no save is in progress or the image is not referred to by key
+     */
+    static String getWrittenKey(Entry e, SerializableImage holder) {
+        if (saved.get() == null || get(e.key) != e || !setSaved(e, holder))
+            return null;
+        return e.key;
+    }
+
+    private static void purge() {
+        EntryReference ref;
+        while ((ref = (EntryReference)released.poll()) != null) {
+            if (entries.get(ref.key) == ref)
+                entries.remove(ref.key);
+            if (savedKeys.get(ref.key) == ref)
+                savedKeys.remove(ref.key);
+        }
+    }
+
+    //The size, type, and a hash of the raster's data, which is hashed directly rather than converted to RGB a pixel at a time
+    private static String getKey(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        Raster raster = image.getRaster();
+        Object row = null;
+        long hash = 0xcbf29ce484222325L;
+        for (int y = 0; y < h; y++) {
+            row = raster.getDataElements(0, y, w, 1, row);
+            hash = hash(hash, row);
+        }
+        return w + "x" + h + "-" + image.getType() + "-" + Long.toHexString(hash);
+    }
+    
+    private static long hash(long hash, Object data) {
+        if (data instanceof int[]) {
+            for (int v : (int[])data)
+                hash = (hash ^ v) * 0x100000001b3L;
+        }
+        else if (data instanceof byte[]) {
+            for (byte v : (byte[])data)
+                hash = (hash ^ v) * 0x100000001b3L;
+        }
+        else if (data instanceof short[]) {
+            for (short v : (short[])data)
+                hash = (hash ^ v) * 0x100000001b3L;
+        }
+        else if (data instanceof float[]) {
+            for (float v : (float[])data)
+                hash = (hash ^ Float.floatToIntBits(v)) * 0x100000001b3L;
+        }
+        else if (data instanceof double[]) {
+            for (double v : (double[])data)
+                hash = (hash ^ Double.doubleToLongBits(v)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    //True if the images are of the same type and color model and hold the same data, so they can be shared
+    private static boolean sameData(BufferedImage a, BufferedImage b) {
+        int w = a.getWidth();
+        int h = a.getHeight();
+        if (w != b.getWidth() || h != b.getHeight() || a.getType() != b.getType() || !a.getColorModel().equals(b.getColorModel()))
+            return false;
+        
+        Raster rasterA = a.getRaster();
+        Raster rasterB = b.getRaster();
+        Object rowA = null;
+        Object rowB = null;
+        for (int y = 0; y < h; y++) {
+            rowA = rasterA.getDataElements(0, y, w, 1, rowA);
+            rowB = rasterB.getDataElements(0, y, w, 1, rowB);
+            if (!Objects.deepEquals(rowA, rowB))
+                return false;
+        }
+        return true;
+    }
+
+    //True if the images have the same pixels, whatever their types
+    private static boolean samePixels(BufferedImage a, BufferedImage b) {
+        int w = a.getWidth();
+        int h = a.getHeight();
+        if (w != b.getWidth() || h != b.getHeight())
+            return false;
+
+        int[] rowA = new int[w];
+        int[] rowB = new int[w];
+        for (int y = 0; y < h; y++) {
+            a.getRGB(0, y, w, 1, rowA, 0, w);
+            b.getRGB(0, y, w, 1, rowB, 0, w);
+            for (int i = 0; i < w; i++) {
+                if (rowA[i] != rowB[i])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+}
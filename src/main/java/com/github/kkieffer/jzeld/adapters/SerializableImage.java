@@ -6,21 +6,36 @@ import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.PixelGrabber;
 import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import javax.imageio.ImageIO;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
 
 /**
- *
+ * Holds an image so that it can be serialized.  The image is held in the ImageStore, and copies of a SerializableImage or other
+ * SerializableImages with identical pixels share it, so the image held here must never be modified in place - replace it with setImage() 
+ * instead.
  * @author kkieffer
  */
 @XmlRootElement(name = "SerializableImage")
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlType(propOrder = {"imageRef", "imageKey", "imageData", "encodedData"})
 public class SerializableImage implements Serializable {
     
     /**
@@ -87,46 +102,281 @@ public class SerializableImage implements Serializable {
     }
     
     
-    transient private Image image; //marked transient for Serializable - custom read/write object will restore it from bytes
+    private static final int ENCODED_CHUNK_BYTES = 1024 * 1024;  //encoded images are saved in chunks of this size, each read as it is written
+    private static final long SPILL_ENCODED_BYTES = 4L * 1024 * 1024;  //loaded encoded images larger than this are held in a temporary file
+    
+    private ImageStore.Entry entry;  //handle to the image in the ImageStore, shared with copies and other identical images
+    transient private LoadedChunks encodedChunks;  //the chunks of an encoded image, while loading
+    transient private String loadedKey;  //the key the image was saved with, while loading
+    
+    //Holds the chunks of an encoded image as they are loaded, moving them to a temporary file once they pass the spill size
+    private static final class LoadedChunks extends AbstractList<byte[]> {
+        private final ArrayList<byte[]> held = new ArrayList<>();  //until spilled
+        private File file;
+        private OutputStream out;  //open once spilled
+        private long length;
+        private int count;
+        
+        @Override
+        public boolean add(byte[] chunk) {
+            count++;
+            length += chunk.length;
+            try {
+                if (out != null)
+                    out.write(chunk);
+                else {
+                    held.add(chunk);
+                    if (length > SPILL_ENCODED_BYTES) {
+                        file = File.createTempFile("jzeld-image", ".tmp");
+                        file.deleteOnExit();
+                        out = new BufferedOutputStream(new FileOutputStream(file));
+                        for (byte[] h : held)
+                            out.write(h);
+                        held.clear();
+                    }
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to hold loaded image: " + ex.getMessage(), ex);
+            }
+            return true;
+        }
+
+        @Override
+        public byte[] get(int index) {
+            if (out != null)
+                throw new UnsupportedOperationException("Loaded image was moved to a file");
+            return held.get(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+        
+        @Override
+        public void clear() {
+            close();
+            if (file != null)
+                file.delete();
+            file = null;
+            held.clear();
+            length = 0;
+            count = 0;
+        }
+        
+        private void close() {
+            if (out == null)
+                return;
+            try {
+                out.close();
+            } catch (IOException ex) {}
+            out = null;
+        }
+        
+        //The source holding the loaded image, its file if spilled
+        private ImageSource toSource() throws IOException {
+            if (file != null) {
+                out.close();
+                out = null;
+                return ImageSource.fromFile(file);
+            }
+            byte[] data = new byte[(int)length];
+            int offset = 0;
+            for (byte[] chunk : held) {
+                System.arraycopy(chunk, 0, data, offset, chunk.length);
+                offset += chunk.length;
+            }
+            return ImageSource.fromBytes(data);
+        }
+    }
 
     
     public SerializableImage() {}
     
+    /**
+     * Create from an image, which is copied unless the store already holds an identical image
+     * @param i the image, may be null
+     */
     public SerializableImage(Image i) {
-        if (i != null)
-            image = copyImage((BufferedImage)i);
+        entry = ImageStore.intern((BufferedImage)i, true);
     }
     
-    public SerializableImage(SerializableImage i) {
-        this.image = copyImage((BufferedImage)i.image);
+    /**
+     * Create from an encoded image, holding a proxy reduced to no more than a number of pixels
+     * @param source the encoded image
+     * @param maxPixels the largest number of pixels to decode, ImageStore.DEFAULT_PROXY_PIXELS is suitable for display
+     * @throws IOException if the source can't be read
+     */
+    public SerializableImage(ImageSource source, long maxPixels) throws IOException {
+        entry = ImageStore.intern(source, maxPixels);
     }
     
-    private void writeObject(ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
-        out.writeBoolean(image != null);
-        if (image != null)
-            ImageIO.write((BufferedImage)image, "png", out); 
-    }
-
-    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
-        boolean imageExists = in.readBoolean();
-        if (imageExists)
-            image = ImageIO.read(in);
+    /**
+     * Create a copy that shares the image with the source, which is safe because the image is replaced, never modified
+     * @param i the source
+     */
+    public SerializableImage(SerializableImage i) {
+        this.entry = i.entry;
     }
     
-    
+    /**
+     * Get the image, which may be shared with copies of this SerializableImage and must not be modified.  If the image is from a source,
+     * this is its reduced proxy.
+     * @return the image
+     */
     public Image getImage() { 
-        return image; 
+        return entry == null ? null : entry.getImage(); 
     }
 
-    @XmlElement (name = "Image")
+    /**
+     * Set the image, which is copied unless the store already holds an identical image
+     * @param i the image, may be null
+     */
     public void setImage(Image i) {
-        this.image = i;
+        entry = ImageStore.intern((BufferedImage)i, true);
     } 
     
+    /**
+     * Get the image reduced for drawing at a size, which may be shared and must not be modified
+     * @param width the width the image is drawn at, in device pixels
+     * @param height the height the image is drawn at, in device pixels
+     * @return the smallest reduction of the image at least as large as the size, or the image itself
+     */
+    public Image getImage(double width, double height) {
+        return entry == null ? null : entry.getLevel(width, height);
+    }
+    
+    /**
+     * Get the source the image was imported from
+     * @return the source, or null if the image is held in full
+     */
+    public ImageSource getSource() {
+        return entry == null ? null : entry.getSource();
+    }
+    
+    /**
+     * True if the image held is a proxy with fewer pixels than its source
+     * @return true if reduced
+     */
+    public boolean isReduced() {
+        return entry != null && entry.isReduced();
+    }
+    
     public Image getImageCopy() {
-        return copyImage((BufferedImage)image);
+        return entry == null ? null : copyImage(entry.getImage());
+    }
+    
+    //Written when saving unless an identical image was already written, in which case the reference is written instead
+    @XmlElement(name = "Image")
+    private Image getImageData() {
+        if (entry == null || entry.getSource() != null || !ImageStore.setSaved(entry, this))
+            return null;
+        return entry.getImage();
+    }
+    
+    private void setImageData(Image i) {
+        entry = ImageStore.internLoaded((BufferedImage)i, loadedKey);  //freshly loaded, no need to copy
+        loadedKey = null;
+    }
+    
+    //Written with the image, because it may be loaded as another type with another key, so references to it find it by this key
+    @XmlElement(name = "ImageKey")
+    private String getImageKey() {
+        if (entry == null || entry.getSource() != null)
+            return null;
+        return ImageStore.getWrittenKey(entry, this);
+    }
+    
+    private void setImageKey(String key) {
+        loadedKey = key;
+    }
+    
+    //Images from a source are written as the encoded source, at full resolution, in chunks read from the source only as each is written
+    @XmlElement(name = "EncodedImage")
+    private List<byte[]> getEncodedData() {
+        if (entry == null)
+            return encodedChunks;  //loading
+        if (entry.getSource() == null || !ImageStore.setSaved(entry, this))
+            return null;
+        
+        final ImageSource source = entry.getSource();
+        final long length = source.getLength();
+        return new AbstractList<byte[]>() {
+            @Override
+            public byte[] get(int index) {
+                long offset = (long)index * ENCODED_CHUNK_BYTES;
+                try {
+                    return source.getBytes(offset, (int)Math.min(ENCODED_CHUNK_BYTES, length - offset));
+                } catch (IOException ex) {
+                    throw new RuntimeException("Unable to read image source: " + ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public int size() {
+                return (int)((length + ENCODED_CHUNK_BYTES - 1) / ENCODED_CHUNK_BYTES);
+            }
+        };
+    }
+    
+    private void setEncodedData(List<byte[]> chunks) {
+        if (chunks == encodedChunks)
+            return;  //loaded into the list from getEncodedData()
+        encodedChunks = new LoadedChunks();
+        for (byte[] chunk : chunks)
+            encodedChunks.add(chunk);
+    }
+    
+    //Called by JAXB before loading, encoded images are loaded into chunks that are moved to a file if large
+    protected void beforeUnmarshal(Unmarshaller u, Object parent) {
+        encodedChunks = new LoadedChunks();
+    }
+    
+    //Called by JAXB once loaded, intern the encoded image.  A large one is held in a temporary file rather than in memory.
+    protected void afterUnmarshal(Unmarshaller u, Object parent) throws IOException {
+        LoadedChunks chunks = encodedChunks;
+        encodedChunks = null;
+        if (chunks != null && chunks.size() > 0)
+            entry = ImageStore.intern(chunks.toSource(), ImageStore.DEFAULT_PROXY_PIXELS);
+    }
+    
+    //Called by JAXB before saving, a save on this thread by another marshaller failed and is no longer in progress
+    protected void beforeMarshal(Marshaller m) {
+        ImageStore.checkSave(m);
+    }
+    
+    @XmlElement(name = "ImageRef")
+    private String getImageRef() {
+        return entry == null ? null : ImageStore.getSavedKey(entry, this);
+    }
+    
+    //A reference to an image not loaded is reported to the unmarshaller's event handler as an error
+    private void setImageRef(String key) {
+        entry = ImageStore.getReferenced(key);  //written earlier in the same file, so already loaded
+        if (entry == null)
+            throw new IllegalArgumentException("Unknown image reference " + key);
+    }
+    
+    /**
+     * Estimates the memory held by the image pixels
+     * @return the size of the image data, in bytes
+     */
+    public long getMemoryEstimate() {
+        if (entry == null)
+            return 0;
+        DataBuffer db = entry.getImage().getRaster().getDataBuffer();
+        long size = (long)db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+        return entry.getSource() == null ? size : size + entry.getSource().getMemoryEstimate();
+    }
+    
+    /**
+     * Adds the image, which is shared with copies of this SerializableImage and identical images, to the map with its size, so that it
+     * can be counted once
+     * @param shared the shared data found so far, by identity, and its estimated size in bytes
+     */
+    public void findSharedMemory(Map<Object, Long> shared) {
+        if (entry != null)
+            shared.put(entry, getMemoryEstimate());
     }
     
 }
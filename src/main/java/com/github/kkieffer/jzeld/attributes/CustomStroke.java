@@ -9,7 +9,8 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
 
 /**
- *
+ * A stroke that draws a custom outline for a ZAbstractShape.  The shape holds the outline created by createStrokedShape() and reuses it
+ * until the shape or its attributes change, so for the same shape and applied attributes the stroke must create the same outline.
  * @author kkieffer
  */
 @XmlRootElement(name = "CustomStroke")
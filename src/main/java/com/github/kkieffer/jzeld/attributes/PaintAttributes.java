@@ -54,6 +54,7 @@ public class PaintAttributes implements Serializable {
     private transient Double height = null;
     private transient Boolean flipHoriz = null;
     private transient Boolean flipVert = null;
+    private transient Color averageColor = null;
     
     private PaintAttributes() {}
     
@@ -83,8 +84,8 @@ public class PaintAttributes implements Serializable {
         }
             
         if (type != PaintType.PATTERN) {
-            dist = src.dist.clone();
-            colors = src.colors.clone();
+            dist = src.dist;  //the arrays are never modified, only replaced, so they can be shared
+            colors = src.colors;
             cycleMethod = src.cycleMethod;
         }
         
@@ -136,6 +137,50 @@ public class PaintAttributes implements Serializable {
         return Arrays.copyOf(dist, dist.length);
     }
    
+    /**
+     * Get the average color of the paint, used in place of the paint where the element is too small to show it
+     * @return the average of the gradient colors, weighted by their distribution, or of the pattern image pixels
+     */
+    public Color getAverageColor() {
+        if (averageColor != null)
+            return averageColor;
+        
+        double r = 0, g = 0, b = 0, a = 0;
+        
+        if (type == PaintType.PATTERN) {
+            BufferedImage img = (BufferedImage)patternImage.getImage();
+            int stepX = Math.max(1, img.getWidth() / 64);  //sample at most 64 x 64 pixels
+            int stepY = Math.max(1, img.getHeight() / 64);
+            int count = 0;
+            for (int y = 0; y < img.getHeight(); y += stepY) {
+                for (int x = 0; x < img.getWidth(); x += stepX) {
+                    int argb = img.getRGB(x, y);
+                    a += (argb >>> 24);
+                    r += (argb >> 16) & 0xFF;
+                    g += (argb >> 8) & 0xFF;
+                    b += argb & 0xFF;
+                    count++;
+                }
+            }
+            r /= count; g /= count; b /= count; a /= count;
+        }
+        else {
+            //Between stops the color blends evenly, so each span contributes the average of its end colors, and the ends hold the first and last colors
+            for (int i = 0; i <= colors.length; i++) {
+                Color c1 = colors[i == 0 ? 0 : i-1];
+                Color c2 = colors[i == colors.length ? colors.length-1 : i];
+                double span = (i == colors.length ? 1.0f : dist[i]) - (i == 0 ? 0.0f : dist[i-1]);
+                r += span * (c1.getRed() + c2.getRed()) / 2;
+                g += span * (c1.getGreen() + c2.getGreen()) / 2;
+                b += span * (c1.getBlue() + c2.getBlue()) / 2;
+                a += span * (c1.getAlpha() + c2.getAlpha()) / 2;
+            }
+        }
+        
+        averageColor = new Color((int)Math.round(r), (int)Math.round(g), (int)Math.round(b), (int)Math.round(a));
+        return averageColor;
+    }
+   
     public CycleMethod getCycle() {
         return cycleMethod;
     }
@@ -149,8 +194,7 @@ public class PaintAttributes implements Serializable {
     }
     
     public BufferedImage getImage() {
-        SerializableImage i = new SerializableImage(patternImage);
-        return (BufferedImage)i.getImage();
+        return (BufferedImage)patternImage.getImageCopy();
     }
     
     
@@ -5,6 +5,7 @@ import com.github.kkieffer.jzeld.attributes.CustomStroke;
 import com.github.kkieffer.jzeld.attributes.ShadowAttributes;
 import com.github.kkieffer.jzeld.attributes.PaintAttributes;
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.ColorAdapter;
+import com.github.kkieffer.jzeld.LevelOfDetail;
 import com.github.kkieffer.jzeld.ZCanvas.CombineOperation;
 import com.jhlabs.image.ShadowFilter;
 import java.awt.AlphaComposite;
@@ -25,6 +26,10 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.SwingUtilities;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -81,6 +86,22 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
     protected ShadowAttributes shadowAttributes = null;
     
     private transient BufferedImage shadowImage = null;
+    private transient int shadowVersion = 0;  //incremented each time the shadow image is discarded
+    private transient boolean shadowPending = false;  //a shadow is being blurred in the background
+    private transient BufferedImage shadowPlaceholder = null;  //the last shadow image, stretched to fit while the new one is blurred
+    private static ExecutorService shadowExecutor = null;  //blurs shadows in the background, created when first needed
+    
+    private transient BasicStroke basicStroke = null;  //last built-in stroke created, reused while the attributes it was created from are unchanged
+    private transient double basicStrokeUnitSize;
+    private transient float basicStrokeThickness;
+    private transient StrokeStyle basicStrokeStyle;
+    private transient Float[] basicStrokeDash;
+    
+    private static final double THICK_OUTLINE_WIDTH = 4.0;  //basic strokes at least this many device pixels wide have their outlines cached
+    private transient Shape strokedOutline = null;  //last outline created by a costly stroke, filled in place of drawing while unchanged
+    private transient Shape strokedOutlineSource;  //shape, stroke, and unit size the outline was created from
+    private transient Stroke strokedOutlineStroke;
+    private transient double strokedOutlineUnitSize;
     
     protected ZAbstractShape(double x, double y, double width, double height, double rotation, boolean canSelect, boolean canResize, boolean canMove, float borderWidth, Color borderColor, Float[] dashPattern, Color fillColor, StrokeStyle outlineStyle) {
         super(x, y, width, height, rotation, canSelect, canResize, canMove);
@@ -243,6 +264,18 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
         changed();
     }
     
+    //The built-in stroke for the current outline attributes and the dash pattern, created only when they or the unit size change
+    private BasicStroke getBasicStroke(double unitSize, Float[] dash) {
+        if (basicStroke == null || basicStrokeUnitSize != unitSize || basicStrokeThickness != borderThickness || basicStrokeStyle != borderStyle || basicStrokeDash != dash) {
+            basicStroke = createBasicStroke(unitSize, borderThickness, borderStyle, dash);
+            basicStrokeUnitSize = unitSize;
+            basicStrokeThickness = borderThickness;
+            basicStrokeStyle = borderStyle;
+            basicStrokeDash = dash;
+        }
+        return basicStroke;
+    }
+    
     public CustomStroke getCustomStroke() {
         return customStroke;
     }
@@ -252,7 +285,7 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
         if (customStroke != null)
             return customStroke;
         else if (borderThickness != 0 && (borderColor != null || strokeAttr != null)) {  //use built-in Basic Stroke
-           return createBasicStroke(scale, borderThickness, borderStyle, dashPattern);
+           return getBasicStroke(scale, dashPattern);
         }
         else
            return null;
@@ -300,7 +333,11 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
      */
     @Override
     public void changed() {
+        if (shadowImage != null)
+            shadowPlaceholder = shadowImage;
         shadowImage = null;
+        shadowVersion++;
+        strokedOutline = null;
         super.changed();
     }
     
@@ -323,6 +360,39 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
         changed();
     }
     
+    /**
+     * Draws the shape with the graphics context's current stroke.  Custom, dashed, and thick strokes are costly to create outlines for, so
+     * the outline they create is held and filled on later paints, until the shape, stroke, or unit size changes or the element changes.
+     * Subclasses should use this in drawShape(), passing the same Shape object each paint while it is unchanged.
+     * @param g the graphics context, with the stroke set
+     * @param s the shape to outline
+     * @param unitSize the parameter passed to drawShape()
+     */
+    protected void drawOutline(Graphics2D g, Shape s, double unitSize) {
+        
+        Stroke stroke = g.getStroke();
+        boolean costly;
+        if (stroke instanceof BasicStroke) {
+            BasicStroke b = (BasicStroke)stroke;
+            costly = b.getDashArray() != null || b.getLineWidth() * LevelOfDetail.getDeviceScale(g) >= THICK_OUTLINE_WIDTH;
+        }
+        else
+            costly = stroke instanceof CustomStroke;
+        
+        if (!costly) {
+            g.draw(s);
+            return;
+        }
+        
+        if (strokedOutline == null || strokedOutlineSource != s || strokedOutlineStroke != stroke || strokedOutlineUnitSize != unitSize) {
+            strokedOutline = stroke.createStrokedShape(s);
+            strokedOutlineSource = s;
+            strokedOutlineStroke = stroke;
+            strokedOutlineUnitSize = unitSize;
+        }
+        g.fill(strokedOutline);
+    }
+    
     protected abstract Shape getAbstractShape();
     protected abstract void fillShape(Graphics2D g, double unitSize, double width, double height);
     protected abstract void drawShape(Graphics2D g, double unitSize, double width, double height);
@@ -610,7 +680,7 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
         else
             ow = customStroke.getOutlineMargin()/72.0 * scale;
         
-        if (shadowImage != null) {           
+        if (shadowAttributes != null && shadowAttributes.isEnabled()) {  //count the shadow even before its image is created
             double margin = getShadowMargin(scale);
             
             double shadW = bounds.getWidth() * shadowAttributes.getSizeRatio();
@@ -650,6 +720,14 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
         
         ShadowFilter shadow = shadowAttributes.createFilter();
        
+        //Filter the image to create the shadow
+        shadowImage = shadow.filter(createShadowMask(unitSize, width, height), null);
+        shadowPlaceholder = null;
+    }
+    
+    //Draw and fill the element's shape in black, on an image enlarged by the margin for the blur
+    private BufferedImage createShadowMask(double unitSize, double width, double height) {
+        
         double margin = getShadowMargin(unitSize);
 
         //Create Buffered Image
@@ -669,36 +747,109 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
             drawShape(imgGraphics, unitSize, width, height);
               
         imgGraphics.dispose();
+        return bi;
+    }
+    
+    /**
+     * Create the shadow image in the background.  The shape is drawn here, on the event dispatch thread, and only the blur runs in the
+     * background.  When the blur finishes the element is repainted, and if it changed meanwhile, the shadow is created again.
+     */
+    private void createShadowLater(double unitSize, double width, double height) {
         
-        //Filter the image to create the shadow
-        shadowImage = shadow.filter(bi, null);
-        
+        if (shadowPending)  //one at a time, the newest shadow is created when the pending one finishes
+            return;
+        shadowPending = true;
+        
+        final int version = shadowVersion;
+        final ShadowFilter shadow = shadowAttributes.createFilter();
+        final BufferedImage mask = createShadowMask(unitSize, width, height);
+        
+        getShadowExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                BufferedImage blurred = null;
+                try {
+                    blurred = shadow.filter(mask, null);
+                } finally {
+                    final BufferedImage result = blurred;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            shadowPending = false;
+                            if (result == null)  //failed, leave the element without its shadow until it changes
+                                return;
+                            if (version == shadowVersion) {
+                                shadowImage = result;
+                                shadowPlaceholder = null;
+                            }
+                            notifyRepaint();
+                        }
+                    });
+                }
+            }
+        });
+    }
+    
+    private static synchronized ExecutorService getShadowExecutor() {
+        if (shadowExecutor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);  //leave a processor for the event dispatch thread
+            shadowExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Shadow renderer");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return shadowExecutor;
     }
     
     
+    private void applyStrokePaint(Graphics2D g, double width, double height, double unitSize, boolean simplified) {
+        if (simplified)
+            g.setColor(strokeAttr.getAverageColor());
+        else
+            strokeAttr.applyPaintAttribute(g, width, height, unitSize, flipHoriz, flipVert);
+    }
+    
     @Override
     public void paint(Graphics2D g, double unitSize, double width, double height) {
 
         if (!isVisible())
             return;
         
-        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        LevelOfDetail.setQualityHints(g);  //speed while the user is manipulating the canvas
+        
+        //When too small to see the details, skip the shadow, fill with the average paint color, and draw the outline solid
+        LevelOfDetail detail = LevelOfDetail.get(g);
+        boolean simplified = detail != null && detail.isSimplified(g, width, height);
 
         //If the element has a shadow, create the shadow image (if needed), and place it at the desired offset
-        if (shadowAttributes != null && shadowAttributes.isEnabled()) {
-            if (shadowImage == null) 
-                createShadow(unitSize, width, height);
+        if (!simplified && shadowAttributes != null && shadowAttributes.isEnabled()) {
+            if (shadowImage == null) {
+                if (!LevelOfDetail.isOutput(g) && hasListener() && SwingUtilities.isEventDispatchThread())  //on the canvas, blur in the background
+                    createShadowLater(unitSize, width, height);
+                else
+                    createShadow(unitSize, width, height);  //printing and exporting need the shadow now
+            }
             
             double margin = getShadowMargin(unitSize);
-   
-            int shadW = (int)(shadowImage.getWidth() * shadowAttributes.getSizeRatio());
-            int shadH = (int)(shadowImage.getHeight() * shadowAttributes.getSizeRatio());
-                
-            g.drawImage(shadowImage, (int)(shadowAttributes.getXOffset()*unitSize - margin/2), (int)(shadowAttributes.getYOffset()*unitSize - margin/2), shadW, shadH, null);
+            
+            //Until the shadow is ready, stretch the last shadow to the size of the new one, if there is one
+            BufferedImage shadow = shadowImage != null ? shadowImage : shadowPlaceholder;
+            if (shadow != null) {
+                double shadowWidth = shadowImage != null ? shadowImage.getWidth() : Math.ceil(width+margin);
+                double shadowHeight = shadowImage != null ? shadowImage.getHeight() : Math.ceil(height+margin);
+                int shadW = (int)(shadowWidth * shadowAttributes.getSizeRatio());
+                int shadH = (int)(shadowHeight * shadowAttributes.getSizeRatio());
+
+                g.drawImage(shadow, (int)(shadowAttributes.getXOffset()*unitSize - margin/2), (int)(shadowAttributes.getYOffset()*unitSize - margin/2), shadW, shadH, null);
+            }
         }
         
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, getOpacity()));
+        g.setComposite(getOpacityComposite());
 
 
         if (backgroundColor != null) {
@@ -706,33 +857,36 @@ public abstract class ZAbstractShape extends ZElement implements ShadowAttribute
             fillShape(g, unitSize, width, height);
         }
         if (paintAttr != null) {
-            paintAttr.applyPaintAttribute(g, width, height, unitSize, flipHoriz, flipVert);
+            if (simplified)
+                g.setColor(paintAttr.getAverageColor());
+            else
+                paintAttr.applyPaintAttribute(g, width, height, unitSize, flipHoriz, flipVert);
             fillShape(g, unitSize, width, height);
         }
 
        if (customStroke != null) {
            customStroke.applyAttributes(unitSize, borderColor, borderThickness, borderStyle, dashPattern);
-           g.setStroke(customStroke);
+           g.setStroke(simplified ? getBasicStroke(unitSize, null) : customStroke);
            g.setColor(customStroke.getColor());
            
            if (strokeAttr != null)
-                strokeAttr.applyPaintAttribute(g, width, height, unitSize, flipHoriz, flipVert);
+               applyStrokePaint(g, width, height, unitSize, simplified);
            
            drawShape(g, unitSize, width, height);
        } 
         
        else if (borderThickness != 0 && (borderColor != null || strokeAttr != null)) {  //use built-in Basic Stroke
            
-            g.setStroke(createBasicStroke(unitSize, borderThickness, borderStyle, dashPattern));
+            g.setStroke(getBasicStroke(unitSize, simplified ? null : dashPattern));
 
             g.setColor(borderColor);
             if (strokeAttr != null)
-                strokeAttr.applyPaintAttribute(g, width, height, unitSize, flipHoriz, flipVert);
+                applyStrokePaint(g, width, height, unitSize, simplified);
                 
             drawShape(g, unitSize, width, height);
        }
                    
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));  //back to full opaque
+        g.setComposite(AlphaComposite.SrcOver);  //back to full opaque
 
     }
 
@@ -4,6 +4,7 @@ package com.github.kkieffer.jzeld.element;
 
 import com.github.kkieffer.jzeld.attributes.TextAttributes;
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.ColorAdapter;
+import com.github.kkieffer.jzeld.LevelOfDetail;
 import com.github.kkieffer.jzeld.ZCanvas;
 import com.github.kkieffer.jzeld.attributes.CustomStroke;
 import com.github.kkieffer.jzeld.attributes.PaintAttributes;
@@ -15,7 +16,9 @@ import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Insets;
 import java.awt.Stroke;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -38,6 +41,8 @@ import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
@@ -126,7 +131,6 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
                 textWidget.getParent().repaint();
                 if (canvas != null)
                     canvas.repaint();
-                changed();
 
         }
 
@@ -142,8 +146,7 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
                 SwingUtilities.invokeLater(new Runnable() {  //Note: The caretUpdate method is not guaranteed to be called in the event-dispatching thread.
                     @Override
                     public void run() {
-                        changed();
-                        validateSize();                    
+                        validateSize();  //a caret move alone is not a change                    
                     }
                 });
                 
@@ -151,6 +154,22 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
             
         });
         
+        textWidget.getDocument().addDocumentListener(new DocumentListener() {  //the text changed
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {  //attributes, whose setters report their own change
+            }
+        });
+        
         
         textPanel.add(textWidget);
         textPanel.setFocusTraversalKeysEnabled(false);
@@ -506,7 +525,7 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
     public Rectangle2D getMarginBounds(double scale) {  //margins just take into account half the line width
         Rectangle2D bounds = getBounds2D(scale);
         double ow = (getOutlineWidth()/2.0)/72.0 * scale;  //half the line width
-        return new Rectangle2D.Double(-ow, -ow, bounds.getWidth() + ow, bounds.getHeight() + ow);
+        return new Rectangle2D.Double(-ow, -ow, bounds.getWidth() + 2*ow, bounds.getHeight() + 2*ow);
         
     }
     
@@ -565,16 +584,25 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
    
     
 
+    //Grow to fit the text, reporting a change only if the size changed
     private void validateSize() {
     
         Rectangle2D bounds = this.getBounds2D();
-        setSize(bounds.getWidth(), bounds.getHeight(), 0, 1); //validate size against text
+        Rectangle2D fitted = fitText(bounds.getWidth(), bounds.getHeight(), 1);
+        if (fitted.getWidth() != bounds.getWidth() || fitted.getHeight() != bounds.getHeight())
+            setSize(bounds.getWidth(), bounds.getHeight(), 0, 1); //validate size against text
     
     }
     
     
     @Override
     protected void setSize(double w, double h, double minSize, double scale) {
+        Rectangle2D fitted = fitText(w, h, scale);
+        super.setSize(fitted.getWidth(), fitted.getHeight(), minSize, scale);
+    }
+    
+    //Set the border of the text widget, and get the size scaled up if needed to fit the characters
+    private Rectangle2D fitText(double w, double h, double scale) {
 
         Border outerBorder = BorderFactory.createLineBorder(this.borderColor, (int)borderThickness, (borderStyle == StrokeStyle.ROUNDED));
                
@@ -595,11 +623,51 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
         if (textMinHeight > h) 
             h = textMinHeight;
   
-        super.setSize(w, h, minSize, scale);
+        return new Rectangle2D.Double(0, 0, w, h);
     }
        
     
     
+    //Text too small to read is drawn as a bar for each line, over the background and inside the border
+    private void paintGreeked(Graphics2D g, double width, double height) {
+        
+        if (backgroundColor != null) {
+            g.setColor(backgroundColor);
+            g.fill(new Rectangle2D.Double(0, 0, width, height));
+        }
+        
+        Insets insets = textWidget.getInsets();
+        FontMetrics fontMetrics = textWidget.getFontMetrics(textAttributes.font);
+        double available = width - insets.left - insets.right;
+        double barHeight = fontMetrics.getAscent() / 2.0;
+        
+        Color c = textAttributes.fontColor;
+        g.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha()/2));  //lighter, like the gaps between letters
+        
+        double y = insets.top + fontMetrics.getAscent() - barHeight;  //from the baseline up to about the height of the lower case letters
+        for (String line : textWidget.getText().split("\n", -1)) {
+            double lineWidth = fontMetrics.stringWidth(line);
+            do {  //lines wider than the available width wrap
+                double w = Math.min(lineWidth, available);
+                double x = insets.left;
+                if (textAttributes.hj == HorizontalJustify.CENTER)
+                    x += (available - w)/2;
+                else if (textAttributes.hj == HorizontalJustify.RIGHT)
+                    x += available - w;
+                
+                if (w > 0)
+                    g.fill(new Rectangle2D.Double(x, y, w, barHeight));
+                
+                lineWidth -= available;
+                y += fontMetrics.getHeight();
+            } while (lineWidth > 0 && available > 0);
+        }
+        
+        Border border = textWidget.getBorder();
+        if (border != null)
+            border.paintBorder(textWidget, g, 0, 0, (int)width, (int)height);
+    }
+    
     @Override
     public void paint(Graphics2D g, double unitSize, double width, double height) {
               
@@ -617,9 +685,13 @@ public class ZEditableText extends ZElement implements TextAttributes.TextInterf
 
         textWidget.setSize(new Dimension((int)width, (int)height));
         
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, getOpacity()));
-        textWidget.paint(g);  //paint the widget
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));  //back to full opaque
+        g.setComposite(getOpacityComposite());
+        LevelOfDetail detail = LevelOfDetail.get(g);
+        if (detail != null && !isSelected && detail.isGreeked(g, textAttributes.font.getSize2D()))
+            paintGreeked(g, width, height);
+        else
+            textWidget.paint(g);  //paint the widget
+        g.setComposite(AlphaComposite.SrcOver);  //back to full opaque
      
         g.setTransform(af);
     }
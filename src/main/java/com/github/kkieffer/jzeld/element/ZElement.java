@@ -2,6 +2,7 @@
 package com.github.kkieffer.jzeld.element;
 
 import com.github.kkieffer.jzeld.adapters.JAXBAdapter.Rectangle2DAdapter;
+import com.github.kkieffer.jzeld.LevelOfDetail;
 import com.github.kkieffer.jzeld.UnitMeasure;
 import com.github.kkieffer.jzeld.ZCanvas;
 import com.github.kkieffer.jzeld.attributes.CustomStroke;
@@ -10,14 +11,20 @@ import static java.awt.BasicStroke.CAP_BUTT;
 import static java.awt.BasicStroke.CAP_ROUND;
 import static java.awt.BasicStroke.JOIN_MITER;
 import static java.awt.BasicStroke.JOIN_ROUND;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.Stroke;
+import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -55,6 +62,103 @@ public abstract class ZElement implements Serializable {
             join = j;
         }
     }
+    
+    //A transform that can be shared from the geometry cache, any attempt to modify it throws UnsupportedOperationException
+    private static final class ReadOnlyTransform extends AffineTransform {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private ReadOnlyTransform(AffineTransform t) {
+            super(t);
+        }
+        
+        private static void readOnly() {
+            throw new UnsupportedOperationException("Element transform is read-only, copy it to modify");
+        }
+        
+        @Override public void translate(double tx, double ty) { readOnly(); }
+        @Override public void rotate(double theta) { readOnly(); }
+        @Override public void rotate(double theta, double anchorx, double anchory) { readOnly(); }
+        @Override public void rotate(double vecx, double vecy) { readOnly(); }
+        @Override public void rotate(double vecx, double vecy, double anchorx, double anchory) { readOnly(); }
+        @Override public void quadrantRotate(int numquadrants) { readOnly(); }
+        @Override public void quadrantRotate(int numquadrants, double anchorx, double anchory) { readOnly(); }
+        @Override public void scale(double sx, double sy) { readOnly(); }
+        @Override public void shear(double shx, double shy) { readOnly(); }
+        @Override public void setToIdentity() { readOnly(); }
+        @Override public void setToTranslation(double tx, double ty) { readOnly(); }
+        @Override public void setToRotation(double theta) { readOnly(); }
+        @Override public void setToRotation(double theta, double anchorx, double anchory) { readOnly(); }
+        @Override public void setToRotation(double vecx, double vecy) { readOnly(); }
+        @Override public void setToRotation(double vecx, double vecy, double anchorx, double anchory) { readOnly(); }
+        @Override public void setToQuadrantRotation(int numquadrants) { readOnly(); }
+        @Override public void setToQuadrantRotation(int numquadrants, double anchorx, double anchory) { readOnly(); }
+        @Override public void setToScale(double sx, double sy) { readOnly(); }
+        @Override public void setToShear(double shx, double shy) { readOnly(); }
+        @Override public void setTransform(AffineTransform tx) { readOnly(); }
+        @Override public void setTransform(double m00, double m10, double m01, double m11, double m02, double m12) { readOnly(); }
+        @Override public void concatenate(AffineTransform tx) { readOnly(); }
+        @Override public void preConcatenate(AffineTransform tx) { readOnly(); }
+        @Override public void invert() { readOnly(); }
+        
+        @Override
+        public Object clone() {
+            return new AffineTransform(this);  //clones can be modified
+        }
+    }
+    
+    //A rectangle that can be shared from the geometry cache, any attempt to modify it throws UnsupportedOperationException
+    private static final class ReadOnlyRectangle extends Rectangle2D {
+        
+        private final double x, y, width, height;
+        
+        private ReadOnlyRectangle(double x, double y, double width, double height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+        
+        @Override public double getX() { return x; }
+        @Override public double getY() { return y; }
+        @Override public double getWidth() { return width; }
+        @Override public double getHeight() { return height; }
+        @Override public boolean isEmpty() { return width <= 0.0 || height <= 0.0; }
+        
+        @Override
+        public void setRect(double x, double y, double w, double h) {  //all other setters and add() come through here
+            throw new UnsupportedOperationException("Element bounds are read-only, copy them to modify");
+        }
+        
+        @Override
+        public int outcode(double px, double py) {
+            return new Rectangle2D.Double(x, y, width, height).outcode(px, py);
+        }
+        
+        @Override
+        public Rectangle2D createIntersection(Rectangle2D r) {
+            Rectangle2D dest = new Rectangle2D.Double();
+            Rectangle2D.intersect(this, r, dest);
+            return dest;
+        }
+        
+        @Override
+        public Rectangle2D createUnion(Rectangle2D r) {
+            Rectangle2D dest = new Rectangle2D.Double();
+            Rectangle2D.union(this, r, dest);
+            return dest;
+        }
+        
+        @Override
+        public Rectangle2D getBounds2D() {
+            return new Rectangle2D.Double(x, y, width, height);
+        }
+        
+        @Override
+        public Object clone() {
+            return getBounds2D();  //clones can be modified
+        }
+    }
 
     private String name;  //user friendly name
     
@@ -70,6 +174,7 @@ public abstract class ZElement implements Serializable {
     private boolean canMove;
     private boolean visible;
     private boolean printable = true;
+    private boolean renderCached = false;  //paint from a cached image while the element and transform are unchanged
     
     protected boolean flipHoriz = false;
     protected boolean flipVert = false;
@@ -84,6 +189,21 @@ public abstract class ZElement implements Serializable {
     transient private boolean selected = false;
     
     transient private UUID copySrcReference = null;  //references the element this is a copy of, or null if not a copy
+    
+    transient private ZElementListener listener = null;  //notified of any changes, generally the canvas holding the element
+    
+    private static final long MAX_RENDER_CACHE_PIXELS = 4000000;  //larger than this, paint directly rather than hold the image
+    transient private BufferedImage renderCache = null;  //rendered pixels of the element, including its margins
+    transient private double[] renderCacheKey = null;  //the transform, unit size, width, height, selection, and level of detail the cache was rendered for
+    transient private Rectangle renderCacheArea = null;  //area of the cache relative to the element's top left corner, in device pixels
+    
+    transient private AlphaComposite opacityComposite = null;  //last composite used to paint at the element's opacity
+    
+    transient private double geometryScale;  //scale the cached geometry is for
+    transient private Rectangle2D geometryBounds = null;  //cached geometry, null when it must be recomputed. The rest are filled when first requested
+    transient private AffineTransform geometryTransform;
+    transient private AffineTransform geometryInverse;
+    transient private Rectangle2D geometryTransformedBounds;
   
     /**
      * Create an object with the initial position (in units) and bounds (in units)
@@ -134,6 +254,7 @@ public abstract class ZElement implements Serializable {
         this.canMove = src.canMove;
         this.visible = src.visible;
         this.printable = src.printable;
+        this.renderCached = src.renderCached;
         this.name = src.name; 
         this.opacity = src.opacity;
         this.flipHoriz = src.flipHoriz;
@@ -201,34 +322,89 @@ public abstract class ZElement implements Serializable {
     }
     
     /**
-     * Flag that the element has changed
+     * Flag that the element has changed.  Every change to the saved state of an element must come through here, because the canvas
+     * only records elements that report changes in the undo history.
      */
     public void changed() {
-        hasChanges = true;
+        notifyChanged();
+    }
+    
+    
+    /**
+     * Sets the listener to be notified when the element changes.  The ZCanvas sets itself as the listener when the element is
+     * added, and removes it when the element is removed.  Copies of the element do not keep the listener.
+     * @param l the listener, or null to remove
+     */
+    public final void setListener(ZElementListener l) {
+        listener = l;
+    }
+    
+    /**
+     * True if the element has a listener, generally the canvas holding the element, that repaints it when asked
+     * @return true if there is a listener
+     */
+    protected final boolean hasListener() {
+        return listener != null;
+    }
+    
+    /**
+     * Ask the listener to repaint the element, when its appearance changed without the element changing.  Must be called on the event
+     * dispatch thread.
+     */
+    protected final void notifyRepaint() {
+        releaseRenderCache();
+        if (listener != null)
+            listener.elementNeedsRepaint(this);
     }
     
+    private void notifyChanged() {
+        hasChanges = true;
+        renderCache = null;
+        geometryBounds = null;
+        if (listener != null)
+            listener.elementChanged(this);
+    }
     
     public boolean isSelected() {
         return selected;
     }
     
     public void select() {
+        if (selected)
+            return;
         selected = true;
+        if (listener != null)
+            listener.elementSelectionChanged(this);
     }
     
     public void deselect() {
+        if (!selected)
+            return;
         selected = false;
+        if (listener != null)
+            listener.elementSelectionChanged(this);
     }
     
     public void setOpacity(float o) {
         opacity = o;
-        hasChanges = true;
+        notifyChanged();
     }
     
     public float getOpacity() {
         return opacity;
     }
     
+    /**
+     * Returns the composite for painting the element at its opacity.  The composite is reused while the opacity is unchanged.
+     * @return the source over composite at the element's opacity
+     */
+    protected final AlphaComposite getOpacityComposite() {
+        float o = getOpacity();
+        if (opacityComposite == null || opacityComposite.getAlpha() != o)
+            opacityComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, o);
+        return opacityComposite;
+    }
+    
     
     /**
      * For elements that support a custom paint attribute, set the custom paint attribute. 
@@ -371,11 +547,17 @@ public abstract class ZElement implements Serializable {
     }
     
     public void setSelectable(boolean selectable) {
+        if (canSelect == selectable)
+            return;
         canSelect = selectable;
+        notifyChanged();
     }
     
     public void setResizable(boolean resizable) {
+        if (this.resizable == resizable)
+            return;
         this.resizable = resizable;
+        notifyChanged();
     }
     
     /**
@@ -409,7 +591,10 @@ public abstract class ZElement implements Serializable {
     public abstract boolean isGroupable();
     
     public void setMoveable(boolean move) {
+        if (canMove == move)
+            return;
         canMove = move;
+        notifyChanged();
     }
     
     /**
@@ -421,7 +606,10 @@ public abstract class ZElement implements Serializable {
     }
     
     public void setVisible(boolean vis) {
+        if (visible == vis)
+            return;
         visible = vis;
+        notifyChanged();
     }
     
     /**
@@ -433,7 +621,57 @@ public abstract class ZElement implements Serializable {
     }
     
     public void setPrintable(boolean p) {
+        if (printable == p)
+            return;
         printable = p;
+        notifyChanged();
+    }
+    
+    /**
+     * Sets whether the element is painted from a cached image of its rendered pixels.  This helps complex elements that are slow to render,
+     * such as shapes with many segments, gradients, or custom strokes. The cache is re-rendered when the element changes, is selected
+     * or deselected, or is painted with a different zoom, transform, or level of detail.
+     * @param cached true to cache the rendered element
+     */
+    public void setRenderCached(boolean cached) {
+        renderCached = cached;
+        releaseRenderCache();
+    }
+    
+    /**
+     * True if the element is painted from a cached image.  Subclasses may override this to cache all elements of their class.
+     * @return 
+     */
+    public boolean isRenderCached() {
+        return renderCached;
+    }
+    
+    /**
+     * Estimates the memory held by the element, used to budget the undo history.  Subclasses holding large data, such as images or
+     * long paths, should add their size.
+     * @return the estimated size, in bytes
+     */
+    public long getMemoryEstimate() {
+        return 512;
+    }
+    
+    /**
+     * Adds the data the element shares with its copies, such as image pixels, to the map with its size.  Shared data is included in
+     * getMemoryEstimate(), and the undo history uses the map to count it once however many copies hold it.  Subclasses holding shared
+     * data should add it.
+     * @param shared the shared data found so far, by identity, and its estimated size in bytes
+     */
+    public void findSharedMemory(Map<Object, Long> shared) {
+    }
+    
+    /**
+     * Frees the cached image of the element, if any. It is rendered again on the next paint
+     */
+    public final void releaseRenderCache() {
+        if (renderCache != null)
+            renderCache.flush();
+        renderCache = null;
+        renderCacheKey = null;
     }
     
     /**
@@ -454,7 +692,7 @@ public abstract class ZElement implements Serializable {
         rotation = rotation % 360.0;
         if (rotation < 0)
             rotation = 360.0 + rotation;
-        hasChanges = true;
+        notifyChanged();
     }
     
     /**
@@ -470,7 +708,10 @@ public abstract class ZElement implements Serializable {
      * @param n the name
      */
     public void setName(String n) {
+        if (n == null ? name == null : n.equals(name))
+            return;
         name = n;
+        notifyChanged();
     }
     
     /**
@@ -487,7 +728,7 @@ public abstract class ZElement implements Serializable {
      */
     public void shearX(double s) {
         shearX += s;
-        hasChanges = true;
+        notifyChanged();
     }
     
     /**
@@ -496,16 +737,16 @@ public abstract class ZElement implements Serializable {
      */
     public void shearY(double s) {
         shearY += s;
-        hasChanges = true;
+        notifyChanged();
     }
 
     public void setShearX(double s) {
         shearX = s;
-        hasChanges = true;
+        notifyChanged();
     }
     public void setShearY(double s) {
         shearY = s;
-        hasChanges = true;
+        notifyChanged();
     }
     
     public double getShearX() {
@@ -537,7 +778,7 @@ public abstract class ZElement implements Serializable {
         
         position.x = x;
         position.y = y;
-        hasChanges = true;
+        notifyChanged();
     }
     
     
@@ -559,7 +800,7 @@ public abstract class ZElement implements Serializable {
         if (position.y + y <= yLimit && position.y + y + bounds.height >= 0)
             position.y += y;
     
-        hasChanges = true;
+        notifyChanged();
         
     }
     
@@ -581,7 +822,7 @@ public abstract class ZElement implements Serializable {
             bounds.width = minSize/scale;  //don't go to zero
         if (bounds.height <= 0)
             bounds.height = minSize/scale; //don't go to zero
-         hasChanges = true;
+         notifyChanged();
    }
     
     /**
@@ -671,6 +912,39 @@ public abstract class ZElement implements Serializable {
         return new Rectangle2D.Double((position.x + bounds.x) * scale, (position.y + bounds.y) * scale, bounds.width * scale, bounds.height * scale);
     }
     
+    /**
+     * Returns the same bounds as getBounds2D(scale), from a cache that is kept until the element changes.  The returned rectangle is
+     * read-only and is shared, so it is not allocated on each call.
+     * @param scale the scale of pixels per unit
+     * @return a read-only bounding rectangle
+     */
+    public final Rectangle2D getCachedBounds2D(double scale) {
+        if (geometryBounds == null || geometryScale != scale) {
+            Rectangle2D r = getBounds2D(scale);
+            geometryBounds = new ReadOnlyRectangle(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+            geometryTransform = null;
+            geometryInverse = null;
+            geometryTransformedBounds = null;
+            geometryScale = scale;
+        }
+        return geometryBounds;
+    }
+    
+    /**
+     * Returns the bounds of the element after its rotation and shear are applied, not including its margins.  The returned rectangle is
+     * read-only and is cached until the element changes.
+     * @param scale the scale of pixels per unit
+     * @return a read-only bounding rectangle of the transformed element
+     */
+    public final Rectangle2D getTransformedBounds2D(double scale) {
+        Rectangle2D b = getCachedBounds2D(scale);
+        if (geometryTransformedBounds == null) {
+            Rectangle2D t = getCachedElementTransform(scale, false).createTransformedShape(b).getBounds2D();
+            geometryTransformedBounds = new ReadOnlyRectangle(t.getX(), t.getY(), t.getWidth(), t.getHeight());
+        }
+        return geometryTransformedBounds;
+    }
+    
     /**
      * Returns the pixel bounds of the object relative to its position using the scaling unit as a Rectangle2D. The element may require additional margin
      * around itself in order to properly draw any additional features such as shadows or reflections.
@@ -719,7 +993,31 @@ public abstract class ZElement implements Serializable {
      * @return 
      */
     public final AffineTransform getElementTransform(double scale, boolean toBase) {
-        Rectangle2D boundsBox = getBounds2D(scale);
+        return new AffineTransform(getCachedElementTransform(scale, toBase));
+    }
+    
+    /**
+     * Returns the same transform as getElementTransform(), from a cache that is kept until the element changes.  The returned
+     * transform is read-only and is shared, so it is not allocated on each call.
+     * @param scale scale of pixels per unit
+     * @param toBase true to transform back to the base coordinate system (no rotation), false to move to the transformed coordinate system
+     * @return a read-only transform
+     */
+    public final AffineTransform getCachedElementTransform(double scale, boolean toBase) {
+        Rectangle2D boundsBox = getCachedBounds2D(scale);
+        if (toBase) {
+            if (geometryInverse == null)
+                geometryInverse = new ReadOnlyTransform(createElementTransform(boundsBox, true));
+            return geometryInverse;
+        }
+        else {
+            if (geometryTransform == null)
+                geometryTransform = new ReadOnlyTransform(createElementTransform(boundsBox, false));
+            return geometryTransform;
+        }
+    }
+    
+    private AffineTransform createElementTransform(Rectangle2D boundsBox, boolean toBase) {
 
         double x = boundsBox.getX() + boundsBox.getWidth()/2; 
         double y = boundsBox.getY() + boundsBox.getHeight()/2;
@@ -742,13 +1040,67 @@ public abstract class ZElement implements Serializable {
      */
     public abstract void paint(Graphics2D g, double unitSize, double width, double height);
 
+    /**
+     * Paint the element from its cached image if it is render cached, otherwise paint it directly. The cached image is drawn at the nearest 
+     * device pixel.  Arguments are the same as paint()
+     * @param g graphics context to paint on
+     * @param unitSize the number of pixels per unit 
+     * @param width the width, in pixels
+     * @param height the height, in pixels
+     */
+    public final void paintCached(Graphics2D g, double unitSize, double width, double height) {
+        
+        if (!isRenderCached() || bounds.width < 0 || bounds.height < 0) {
+            paint(g, unitSize, width, height);
+            return;
+        }
+        
+        AffineTransform t = g.getTransform();
+        LevelOfDetail detail = LevelOfDetail.get(g);  //simplification and greeking change what is painted
+        double[] key = new double[] {t.getScaleX(), t.getShearY(), t.getShearX(), t.getScaleY(), unitSize, width, height, selected ? 1 : 0,
+                                     detail == null ? -1 : detail.getSimplifyBelow(), detail == null ? -1 : detail.getGreekBelow(), detail == null ? -1 : detail.getFlatness()};
+        
+        if (renderCache == null || !Arrays.equals(key, renderCacheKey)) {
+            if (LevelOfDetail.isInteractive(g)) {  //don't hold pixels painted for speed, paint directly until the canvas is refined
+                paint(g, unitSize, width, height);
+                return;
+            }
+            
+            releaseRenderCache();
+            
+            AffineTransform linear = new AffineTransform(key[0], key[1], key[2], key[3], 0, 0);  //without the translation
+            Rectangle area = linear.createTransformedShape(getMarginBounds(unitSize)).getBounds();
+            if (area.isEmpty() || (long)area.width * area.height > MAX_RENDER_CACHE_PIXELS) {  //too large to hold, paint directly
+                paint(g, unitSize, width, height);
+                return;
+            }
+            
+            BufferedImage img = g.getDeviceConfiguration().createCompatibleImage(area.width, area.height, Transparency.TRANSLUCENT);
+            Graphics2D ig = img.createGraphics();
+            ig.setRenderingHints(g.getRenderingHints());
+            ig.translate(-area.x, -area.y);
+            ig.transform(linear);
+            paint(ig, unitSize, width, height);
+            ig.dispose();
+            
+            renderCache = img;
+            renderCacheKey = key;
+            renderCacheArea = area;
+        }
+        
+        Point2D corner = t.transform(new Point2D.Double(0, 0), null);  //top left corner, in device pixels
+        g.setTransform(new AffineTransform());
+        g.drawImage(renderCache, (int)Math.round(corner.getX()) + renderCacheArea.x, (int)Math.round(corner.getY()) + renderCacheArea.y, null);
+        g.setTransform(t);
+    }
+    
     
     /**
      * Flip the object horizontally (in place).  If an object doesn't support this, it doesn't override this method
      */
     public void flipHorizontal() {
         flipHoriz = !flipHoriz;
-        hasChanges = true;
+        notifyChanged();
     }
         
     
@@ -757,7 +1109,7 @@ public abstract class ZElement implements Serializable {
      */
     public void flipVertical() {
         flipVert = !flipVert;
-        hasChanges = true;
+        notifyChanged();
     }    
     
     /**
@@ -0,0 +1,30 @@
+
+package com.github.kkieffer.jzeld.element;
+
+/**
+ * Classes that implement this interface are notified when an element changes, such as its position, size, rotation, shear, or
+ * other attributes.  Generally this is the ZCanvas that holds the element.
+ * @author kkieffer
+ */
+public interface ZElementListener {
+
+    /**
+     * The element has been modified
+     * @param e the element that changed
+     */
+    public void elementChanged(ZElement e);
+
+    /**
+     * The element has been selected or deselected
+     * @param e the element, check isSelected() for its new state
+     */
+    public void elementSelectionChanged(ZElement e);
+
+    /**
+     * The element's appearance changed without the element itself changing, such as when an image it paints finished rendering in the
+     * background, and it needs to be repainted
+     * @param e the element to repaint
+     */
+    public void elementNeedsRepaint(ZElement e);
+
+}
@@ -9,7 +9,8 @@ import com.github.kkieffer.jzeld.attributes.CustomStroke;
 import com.github.kkieffer.jzeld.attributes.ShadowAttributes;
 import com.github.kkieffer.jzeld.attributes.TextAttributes;
 import com.github.kkieffer.jzeld.attributes.PaintAttributes;
-import static com.github.kkieffer.jzeld.element.ZShape.setClip;
+import static com.github.kkieffer.jzeld.element.ZShape.applyClip;
+import static com.github.kkieffer.jzeld.element.ZShape.restoreClip;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
@@ -20,6 +21,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Map;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -63,7 +65,7 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
         
         Rectangle2D.Double b = new Rectangle2D.Double(p.getX() + margin.getX(), p.getY() + margin.getY(), margin.getWidth(), margin.getHeight()); 
 
-        AffineTransform t = e.getElementTransform(1.0, false);
+        AffineTransform t = e.getCachedElementTransform(1.0, false);
         Shape s = t.createTransformedShape(b);
 
         return s.getBounds2D();  //make bounds something that can hold the transformed shape
@@ -146,9 +148,7 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
         this.groupedWidth = src.groupedWidth;
         this.groupedHeight = src.groupedHeight;
         
-        if (src.clippingShape != null) {
-            this.clippingShape = ShapeAdapter.copyOf(src.clippingShape);
-        }
+        this.clippingShape = src.clippingShape;  //never modified, only replaced, so it can be shared
     }
     
     
@@ -157,6 +157,20 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
         return new ZGroupedElement(this, forNew);
     }
     
+    @Override
+    public long getMemoryEstimate() {
+        long size = super.getMemoryEstimate();
+        for (ZElement e : elements)
+            size += e.getMemoryEstimate();
+        return size;
+    }
+    
+    @Override
+    public void findSharedMemory(Map<Object, Long> shared) {
+        for (ZElement e : elements)
+            e.findSharedMemory(shared);
+    }
+    
     /**
      * Get the array of elements contained in this group. Use this with caution, generally it is better to call
      * the set attribute method directly on the ZGroupedElement, which will set it in all the grouped elements.
@@ -414,12 +428,12 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
     }
   
     /**
-     * Returns the clipping shape for this shape. The clipping shape has been offset to this shape's origin
-     * @return 
+     * Returns a copy of the clipping shape for this shape. The clipping shape has been offset to this shape's origin
+     * @return the clipping shape, or null if there is none
      */
     @Override
     public Shape getClippingShape() {
-        return clippingShape;
+        return clippingShape == null ? null : ShapeAdapter.copyOf(clippingShape);  //shared with copies of this element
     }
     
     
@@ -436,6 +450,7 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
         }
         else
             clippingShape = null;
+        changed();
     }
     
   
@@ -491,6 +506,8 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
             clippingShape = translateInstance.createTransformedShape(clippingShape);
         }
         
+        changed();
+        
         
     }
     
@@ -521,6 +538,8 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
             clippingShape = translateInstance.createTransformedShape(clippingShape);
         }
         
+        changed();
+        
     }
     
     
@@ -574,14 +593,14 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
             scaledClip = scaleInstance.createTransformedShape(clippingShape);
         }
         
-        Shape origClip = setClip(g, scaledClip);
+        Shape origClip = applyClip(g, scaledClip);
         
         //Paint each element - each element has been "moved" to its offset within the group already
         for (ZElement e : elements) {    
             AffineTransform orig = g.getTransform();
-            Rectangle2D bounds = e.getBounds2D(unitSize);
+            Rectangle2D bounds = e.getCachedBounds2D(unitSize);
 
-            AffineTransform elementTransform = e.getElementTransform(unitSize, false);
+            AffineTransform elementTransform = e.getCachedElementTransform(unitSize, false);
             g.transform(elementTransform);
             g.translate(bounds.getX(), bounds.getY());
             e.paint(g, unitSize, bounds.getWidth(), bounds.getHeight());
@@ -590,7 +609,7 @@ public final class ZGroupedElement extends ZElement implements TextAttributes.Te
                     
         }
 
-        g.setClip(origClip);
+        restoreClip(g, scaledClip, origClip);
 
     }
 
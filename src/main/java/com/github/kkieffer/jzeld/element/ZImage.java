@@ -1,15 +1,26 @@
 
 package com.github.kkieffer.jzeld.element;
 
+import com.github.kkieffer.jzeld.LevelOfDetail;
+import com.github.kkieffer.jzeld.adapters.ImageSource;
+import com.github.kkieffer.jzeld.adapters.ImageStore;
 import com.github.kkieffer.jzeld.adapters.SerializableImage;
-import static com.github.kkieffer.jzeld.element.ZShape.setClip;
+import static com.github.kkieffer.jzeld.element.ZShape.applyClip;
+import static com.github.kkieffer.jzeld.element.ZShape.restoreClip;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.awt.print.PrinterGraphics;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Map;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -19,6 +30,9 @@ import javax.xml.bind.annotation.XmlRootElement;
  * A ZImage is similar to a ZRectangle, but the rectangle is filled with a loaded Image.  
  * The image is scaled to fit the size of the rectangle.  The ZImage does not support a fill color.
  * 
+ * Large images can be set from an ImageSource, in which case only a reduced proxy is held for display, and the regions being printed
+ * or exported are decoded from the source at the resolution needed.
+ * 
  * @author kkieffer
  */
 @XmlRootElement(name = "ZImage")
@@ -29,6 +43,12 @@ public class ZImage extends ZRectangle {
     
     protected SerializableImage image;
     
+    //The region of the source last decoded for printing or export
+    private transient SoftReference<BufferedImage> decodedTile;
+    private transient ImageSource decodedSource;
+    private transient Rectangle decodedRegion;
+    private transient int decodedSubsampling;
+    
     protected ZImage() {}
     
     /**
@@ -55,12 +75,13 @@ public class ZImage extends ZRectangle {
         
         
         //Create the serializable image from a resized image.  The image doesn't actually change size but we switch to ARGB or RGB types because some
-        //other types don't always print when printing the image to a printer.
+        //other types don't always print when printing the image to a printer.  Images already of those types are only copied.
         if (img != null) {
-            if (img.getColorModel().hasAlpha())
-                image = new SerializableImage(SerializableImage.resizeImage(img, img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB));
+            int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            if (img.getType() == type)
+                image = new SerializableImage(img);
             else
-                image = new SerializableImage(SerializableImage.resizeImage(img, img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB));
+                image = new SerializableImage(SerializableImage.resizeImage(img, img.getWidth(), img.getHeight(), type));
         } else
             image = new SerializableImage();
     }
@@ -70,7 +91,7 @@ public class ZImage extends ZRectangle {
         this.flipHoriz = copy.flipHoriz;
         this.flipVert = copy.flipVert;
         
-        //Copy image
+        //Share the image, it is replaced rather than modified
         this.image = new SerializableImage(copy.image);
     }
     
@@ -90,7 +111,8 @@ public class ZImage extends ZRectangle {
     }
     
     /**
-     * Set the image to use
+     * Set the image to use.  The image is copied, or shared with an identical image already in use, so later changes to it don't affect 
+     * this element or its copies
      * @param i 
      */
     public void setImage(BufferedImage i) {
@@ -99,7 +121,26 @@ public class ZImage extends ZRectangle {
     }
     
     /**
-     * Retrieves a copy of the image from this element.  
+     * Set the image from an encoded image, holding only a proxy reduced for display.  The full resolution is decoded from the source
+     * a region at a time when printing or exporting.
+     * @param source the encoded image
+     * @throws IOException if the source can't be read
+     */
+    public void setImageSource(ImageSource source) throws IOException {
+        image = new SerializableImage(source, ImageStore.DEFAULT_PROXY_PIXELS);
+        changed();
+    }
+    
+    /**
+     * Get the source of the image
+     * @return the source, or null if the image was not set from a source
+     */
+    public ImageSource getImageSource() {
+        return image.getSource();
+    }
+    
+    /**
+     * Retrieves a copy of the image from this element.  If the image was set from a source, this is the proxy reduced for display.
      * @return a copy of the image
      */
     public Image getImage() {
@@ -112,6 +153,16 @@ public class ZImage extends ZRectangle {
     public boolean supportsEdit() {
         return false;
     };
+    
+    @Override
+    public long getMemoryEstimate() {
+        return super.getMemoryEstimate() + image.getMemoryEstimate();
+    }
+    
+    @Override
+    public void findSharedMemory(Map<Object, Long> shared) {
+        image.findSharedMemory(shared);
+    }
   
     /**
      * Draw the image on the graphics. This allows subclass overriding to modify the image or change rendering
@@ -123,12 +174,71 @@ public class ZImage extends ZRectangle {
      * @param height the image height
      */
     protected void paintImage(Graphics2D g, Image img, final int x, final int y, final int width, final int height) {      
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        boolean fast = LevelOfDetail.isInteractive(g);  //nearest neighbor while the user is manipulating the canvas
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, fast ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, fast ? RenderingHints.VALUE_RENDER_SPEED : RenderingHints.VALUE_RENDER_QUALITY);
         g.drawImage(img, x, y, width, height, null);
     }
     
     
+    /**
+     * Decode the region of the source image inside the clip, at the resolution of the graphics, and draw it with paintImage().  The last
+     * region decoded is kept, while memory allows, for the next paint of the same part of the image.  If the source can't be read, the 
+     * proxy is drawn instead.
+     */
+    private void paintFromSource(Graphics2D g, int x, int y, int width, int height) {
+        ImageSource source = image.getSource();
+        
+        //Map source pixels to the element, including any flip from a negative width or height
+        double sx = (double)width / source.getWidth();
+        double sy = (double)height / source.getHeight();
+        AffineTransform toElement = new AffineTransform(sx, 0, 0, sy, x, y);
+        
+        Rectangle region = new Rectangle(0, 0, source.getWidth(), source.getHeight());
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            try {
+                Rectangle visible = toElement.createInverse().createTransformedShape(clip).getBounds();
+                visible.grow(1, 1);  //neighboring pixels for interpolation at the edges
+                region = region.intersection(visible);
+            } catch (NoninvertibleTransformException ex) {
+                return;  //zero size
+            }
+        }
+        if (region.isEmpty())
+            return;
+        
+        //Printers get full resolution, images get as many source pixels as device pixels
+        int subsampling = 1;
+        if (!(g instanceof PrinterGraphics)) {
+            double devicePixels = Math.min(Math.abs(sx), Math.abs(sy)) * LevelOfDetail.getDeviceScale(g);  //per source pixel
+            subsampling = Math.max(1, (int)(1.0 / devicePixels));
+        }
+        
+        BufferedImage tile = decodedTile != null ? decodedTile.get() : null;
+        if (tile != null && decodedSource == source && decodedSubsampling == subsampling && decodedRegion.contains(region))
+            region = decodedRegion;  //already decoded, draw all of it and let the clip trim it
+        else {
+            try {
+                tile = source.read(region, subsampling);
+            } catch (IOException ex) {
+                paintImage(g, image.getImage(), x, y, width, height);
+                return;
+            }
+            decodedTile = new SoftReference<>(tile);
+            decodedSource = source;
+            decodedRegion = region;
+            decodedSubsampling = subsampling;
+        }
+        
+        AffineTransform t = g.getTransform();
+        g.transform(toElement);
+        g.translate(region.x, region.y);
+        g.scale((double)region.width / tile.getWidth(), (double)region.height / tile.getHeight());
+        paintImage(g, tile, 0, 0, tile.getWidth(), tile.getHeight());
+        g.setTransform(t);
+    }
+    
     @Override
     public void paint(Graphics2D g, double unitSize, double width, double height) {
              
@@ -137,7 +247,7 @@ public class ZImage extends ZRectangle {
 
         super.paint(g, unitSize, width, height);   
            
-        Shape origClip = setClip(g, scaledClip);
+        Shape origClip = applyClip(g, scaledClip);
                
         if (image != null) {
             int x = flipHoriz ? (int)width : 0;
@@ -145,12 +255,19 @@ public class ZImage extends ZRectangle {
             int y = flipVert ? (int)height : 0;
             int h = flipVert ? (int)-height : (int)height;
 
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, getOpacity()));
-            paintImage(g, image.getImage(), x, y, w, h);
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
+            g.setComposite(getOpacityComposite());
+            if (!LevelOfDetail.isOutput(g)) {  //on the screen, at any detail, draw from the reduction of the image closest to its size in pixels
+                double scale = LevelOfDetail.getDeviceScale(g);
+                paintImage(g, image.getImage(Math.abs(w) * scale, Math.abs(h) * scale), x, y, w, h);
+            }
+            else if (image.isReduced())
+                paintFromSource(g, x, y, w, h);  //printing and export, decode the full resolution that is needed
+            else
+                paintImage(g, image.getImage(), x, y, w, h);
+            g.setComposite(AlphaComposite.SrcOver);
         }
         
-        g.setClip(origClip);
+        restoreClip(g, scaledClip, origClip);
 
     }
     
@@ -3,7 +3,8 @@ package com.github.kkieffer.jzeld.element;
 
 import com.github.kkieffer.jzeld.adapters.ShapeAdapter;
 import com.github.kkieffer.jzeld.attributes.Clippable;
-import static com.github.kkieffer.jzeld.element.ZShape.setClip;
+import static com.github.kkieffer.jzeld.element.ZShape.applyClip;
+import static com.github.kkieffer.jzeld.element.ZShape.restoreClip;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
@@ -26,6 +27,11 @@ public abstract class ZPolygon extends ZAbstractShape implements Clippable {
     transient private Shape shape;
     transient protected Shape scaledClip;
     
+    transient private boolean paintGeometryValid = false;  //shape and scaledClip are reused until the element changes or is painted differently
+    transient private double paintUnitSize, paintWidth, paintHeight;
+    transient private boolean paintFlipHoriz, paintFlipVert;
+    transient private Shape paintClipSource;
+    
     @XmlJavaTypeAdapter(ShapeAdapter.class)
     private Shape clippingShape = null; 
 
@@ -35,9 +41,7 @@ public abstract class ZPolygon extends ZAbstractShape implements Clippable {
 
     public ZPolygon(ZPolygon src, boolean forNew) {
         super(src, forNew);
-         if (src.clippingShape != null) {
-            this.clippingShape = ShapeAdapter.copyOf(src.clippingShape);
-        }
+        this.clippingShape = src.clippingShape;  //never modified, only replaced, so it can be shared
     }
     
     public ZPolygon(double x, double y, double width, double height, double rotation, boolean canSelect, boolean canResize, boolean canMove, float borderWidth, Color borderColor, Float[] dashPattern, Color fillColor, StrokeStyle borderStyle) {
@@ -99,41 +103,45 @@ public abstract class ZPolygon extends ZAbstractShape implements Clippable {
         }
         else
             clippingShape = null;
+        changed();
     }
     
     @Override
     protected void fillShape(Graphics2D g, double unitSize, double width, double height) {
-        Shape origClip = setClip(g, scaledClip);
+        Shape origClip = applyClip(g, scaledClip);
         g.fill(shape);
-        g.setClip(origClip);
+        restoreClip(g, scaledClip, origClip);
     }
     
     @Override
     protected void drawShape(Graphics2D g, double unitSize, double width, double height) {
-        Shape origClip = setClip(g, scaledClip);
-        g.draw(shape);
-        g.setClip(origClip);
+        Shape origClip = applyClip(g, scaledClip);
+        drawOutline(g, shape, unitSize);
+        restoreClip(g, scaledClip, origClip);
     }
     
     
     protected abstract Shape getPolygon(double width, double height, double scale);
     
     private Shape getTransformedPolygon(double width, double height, double scale) {
-        
-        Shape polygon = getPolygon(width, height, scale);
-        
-        if (flipHoriz || flipVert) {
-            AffineTransform scaleInstance = AffineTransform.getScaleInstance(flipHoriz ? -1.0 : 1.0, flipVert ? -1.0 : 1.0);  //scaling negative creates a mirror image the other direction
-            polygon = scaleInstance.createTransformedShape(polygon);
-            scaledClip = scaleInstance.createTransformedShape(scaledClip);
-            
-            AffineTransform translateInstance = AffineTransform.getTranslateInstance(flipHoriz ? width : 0, flipVert ? height : 0);  //move back to where it was
-            polygon = translateInstance.createTransformedShape(polygon);
-            scaledClip = translateInstance.createTransformedShape(scaledClip);
+        return flip(getPolygon(width, height, scale), width, height);
+    }
+    
+    //Mirror the shape within the width and height according to the flip settings
+    private Shape flip(Shape s, double width, double height) {
+        if (s != null && (flipHoriz || flipVert)) {
+            AffineTransform flipInstance = AffineTransform.getTranslateInstance(flipHoriz ? width : 0, flipVert ? height : 0);  //move back to where it was
+            flipInstance.scale(flipHoriz ? -1.0 : 1.0, flipVert ? -1.0 : 1.0);  //scaling negative creates a mirror image the other direction
+            s = flipInstance.createTransformedShape(s);
         }
-        return polygon;
+        return s;
     }
     
+    @Override
+    public void changed() {
+        paintGeometryValid = false;
+        super.changed();
+    }
      
     @Override
     protected Shape getAbstractShape() {
@@ -145,20 +153,33 @@ public abstract class ZPolygon extends ZAbstractShape implements Clippable {
     @Override
     public void paint(Graphics2D g, double unitSize, double width, double height) {
  
-        if (clippingShape != null) {
-            AffineTransform scaleInstance = AffineTransform.getScaleInstance(unitSize, unitSize);
-            scaledClip = scaleInstance.createTransformedShape(clippingShape);
+        //Only rebuild the polygon and clip when something they depend on has changed since the last paint
+        if (!paintGeometryValid || paintUnitSize != unitSize || paintWidth != width || paintHeight != height || 
+                paintFlipHoriz != flipHoriz || paintFlipVert != flipVert || paintClipSource != clippingShape) {
+            
+            if (clippingShape != null) {
+                AffineTransform scaleInstance = AffineTransform.getScaleInstance(unitSize, unitSize);
+                scaledClip = flip(scaleInstance.createTransformedShape(clippingShape), width, height);
+            }
+            else
+                scaledClip = null;
+
+            shape = getTransformedPolygon(width, height, unitSize);
+            
+            paintUnitSize = unitSize;
+            paintWidth = width;
+            paintHeight = height;
+            paintFlipHoriz = flipHoriz;
+            paintFlipVert = flipVert;
+            paintClipSource = clippingShape;
+            paintGeometryValid = true;
         }
-        else
-            scaledClip = null;
-        
-        shape = getTransformedPolygon(width, height, unitSize);  //and also transform the scaled clip
    
-        Shape origClip = setClip(g, scaledClip);
+        Shape origClip = applyClip(g, scaledClip);
         
         super.paint(g, unitSize, width, height);
         
-        g.setClip(origClip);
+        restoreClip(g, scaledClip, origClip);
 
     }
 
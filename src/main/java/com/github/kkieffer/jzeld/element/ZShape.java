@@ -1,6 +1,7 @@
 
 package com.github.kkieffer.jzeld.element;
 
+import com.github.kkieffer.jzeld.LevelOfDetail;
 import com.github.kkieffer.jzeld.adapters.ShapeAdapter;
 import com.github.kkieffer.jzeld.attributes.Clippable;
 import com.github.kkieffer.jzeld.attributes.CustomStroke;
@@ -56,12 +57,36 @@ public class ZShape extends ZAbstractShape implements Clippable {
         return currClip;
     }
     
+    /**
+     * Same as setClip(), except when there is no new clip, the graphics clip is left alone and null is returned.  Restore the clip with
+     * restoreClip().  Unclipped elements then paint without getting and resetting the graphics clip, which is costly.
+     * @param g the graphics context
+     * @param newClip new clip to merge, or null for none
+     * @return the original clip, to pass to restoreClip()
+     */
+    public static Shape applyClip(Graphics2D g, Shape newClip) {
+        if (newClip == null)
+            return null;
+        return setClip(g, newClip);
+    }
+    
+    /**
+     * Restore the clip that was replaced by applyClip()
+     * @param g the graphics context
+     * @param newClip the clip that was passed to applyClip()
+     * @param origClip the original clip returned by applyClip()
+     */
+    public static void restoreClip(Graphics2D g, Shape newClip, Shape origClip) {
+        if (newClip != null)
+            g.setClip(origClip);
+    }
+    
     
     
     public static final double MIN_SHAPE_DIMENSION = 0.2;
     
     @XmlJavaTypeAdapter(ShapeAdapter.class)
-    protected Shape shape;  //holds the original, unaltered shape
+    protected Shape shape;  //holds the original, unaltered shape, which is replaced but never modified so copies can share it
     
     @XmlJavaTypeAdapter(ShapeAdapter.class)
     private Shape clippingShape = null; 
@@ -71,6 +96,14 @@ public class ZShape extends ZAbstractShape implements Clippable {
     
     transient protected Shape scaledShape;  //holds a resized version of the shape for painting
     transient protected Shape scaledClip;  //holds a resized version of the clipping shape for painting
+    transient private double scaledUnitSize;  //unit size the scaled shapes were created for
+    transient private Shape scaledShapeSource;  //the shape and clip the scaled shapes were created from, which are replaced, never modified, when they change
+    transient private Shape scaledClipSource;
+    
+    transient private Shape paintedShape;  //the scaled shape, or its simplified form when it is too small to show every segment
+    transient private Shape simplifiedShape;
+    transient private Shape simplifiedSource;  //scaled shape and flatness the simplified shape was created from
+    transient private double simplifiedFlatness;
     
     
     /**
@@ -208,11 +241,9 @@ public class ZShape extends ZAbstractShape implements Clippable {
         
         this.scaleBorderWithShape = src.scaleBorderWithShape;
          
-        //Make a copy of the shape
-        this.shape = ShapeAdapter.copyOf(src.shape);
-
-        if (src.clippingShape != null)
-            this.clippingShape = ShapeAdapter.copyOf(src.clippingShape);
+        //The shapes are never modified, only replaced, so share them rather than copying
+        this.shape = src.shape;
+        this.clippingShape = src.clippingShape;
  
     }
     
@@ -222,6 +253,14 @@ public class ZShape extends ZAbstractShape implements Clippable {
         return new ZShape(this, forNew);
     }
     
+    @Override
+    public long getMemoryEstimate() {
+        long segments = 0;
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next())
+            segments++;
+        return super.getMemoryEstimate() + segments * 32;  //segment type and up to three points
+    }
+    
     protected void setShape(Shape s) {
         this.shape = s;
         super.setSize(s.getBounds2D().getWidth(), s.getBounds2D().getHeight(), MIN_SHAPE_DIMENSION, 1.0);
@@ -245,12 +284,12 @@ public class ZShape extends ZAbstractShape implements Clippable {
     }
     
     /**
-     * Returns the clipping shape for this shape. The clipping shape has been offset to this shape's origin
-     * @return 
+     * Returns a copy of the clipping shape for this shape. The clipping shape has been offset to this shape's origin
+     * @return the clipping shape, or null if there is none
      */
     @Override
     public Shape getClippingShape() {
-        return clippingShape;
+        return clippingShape == null ? null : ShapeAdapter.copyOf(clippingShape);  //shared with copies of this element
     }
     
     /**
@@ -266,6 +305,7 @@ public class ZShape extends ZAbstractShape implements Clippable {
         }
         else
             clippingShape = null;
+        changed();
     }
     
     
@@ -275,7 +315,10 @@ public class ZShape extends ZAbstractShape implements Clippable {
     }
     
     public void scaleBorderWithShape(boolean enable) {
+        if (scaleBorderWithShape == enable)
+            return;
         scaleBorderWithShape = enable;
+        changed();
     }
 
     public boolean scaleBorderWithShape() {
@@ -323,20 +366,20 @@ public class ZShape extends ZAbstractShape implements Clippable {
 
     @Override
     protected void fillShape(Graphics2D g, double unitSize, double width, double height) {     
-        Shape origClip = setClip(g, scaledClip);
-        if (scaledShape != null)
-            g.fill(scaledShape);
-        g.setClip(origClip);
+        Shape origClip = applyClip(g, scaledClip);
+        if (paintedShape != null)
+            g.fill(paintedShape);
+        restoreClip(g, scaledClip, origClip);
     }
 
    
     
     @Override
     protected void drawShape(Graphics2D g, double unitSize, double width, double height) { 
-        Shape origClip = setClip(g, scaledClip);
-        if (scaledShape != null)
-            g.draw(scaledShape);
-        g.setClip(origClip);
+        Shape origClip = applyClip(g, scaledClip);
+        if (paintedShape != null)
+            drawOutline(g, paintedShape, unitSize);
+        restoreClip(g, scaledClip, origClip);
     }
 
     @Override
@@ -378,11 +421,101 @@ public class ZShape extends ZAbstractShape implements Clippable {
     }
     
     
+    /**
+     * Drop the segments of the shape that stay closer than the flatness to the last point kept, which can greatly reduce the
+     * segments of a detailed path that is painted small.  The remaining segments are kept as they are.
+     * @param s the shape to simplify
+     * @param flatness the distance, horizontally and vertically, within which segments are dropped
+     * @return the simplified shape
+     */
+    public static Shape simplify(Shape s, double flatness) {
+        
+        PathIterator it = s.getPathIterator(null);
+        Path2D path = new Path2D.Double(it.getWindingRule());
+        
+        double[] coords = new double[6];
+        double lastX = 0, lastY = 0;  //last point kept
+        boolean dropped = false;  //true if segments were dropped since the last point kept
+        double droppedX = 0, droppedY = 0;
+        
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                    if (dropped)
+                        path.lineTo(droppedX, droppedY);
+                    dropped = false;
+                    path.moveTo(coords[0], coords[1]);
+                    lastX = coords[0];
+                    lastY = coords[1];
+                    break;
+                    
+                case PathIterator.SEG_LINETO:
+                case PathIterator.SEG_QUADTO:
+                case PathIterator.SEG_CUBICTO:
+                    int points = type == PathIterator.SEG_LINETO ? 1 : (type == PathIterator.SEG_QUADTO ? 2 : 3);
+                    boolean near = true;
+                    for (int i=0; i<points && near; i++)
+                        near = Math.abs(coords[i*2] - lastX) < flatness && Math.abs(coords[i*2+1] - lastY) < flatness;
+                    
+                    int end = (points-1)*2;  //index of the end point
+                    if (near) {
+                        dropped = true;
+                        droppedX = coords[end];
+                        droppedY = coords[end+1];
+                        break;
+                    }
+                    
+                    dropped = false;
+                    if (type == PathIterator.SEG_LINETO)
+                        path.lineTo(coords[0], coords[1]);
+                    else if (type == PathIterator.SEG_QUADTO)
+                        path.quadTo(coords[0], coords[1], coords[2], coords[3]);
+                    else
+                        path.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    lastX = coords[end];
+                    lastY = coords[end+1];
+                    break;
+                    
+                case PathIterator.SEG_CLOSE:
+                    if (dropped)
+                        path.lineTo(droppedX, droppedY);
+                    dropped = false;
+                    path.closePath();
+                    break;
+            }
+            it.next();
+        }
+        if (dropped)  //end where the path ended
+            path.lineTo(droppedX, droppedY);
+        
+        return path;
+    }
+    
     @Override
     public void paint(Graphics2D g, double unitSize, double width, double height) {
-        AffineTransform scaleInstance = AffineTransform.getScaleInstance(unitSize, unitSize);
-        scaledShape = scaleInstance.createTransformedShape(shape);
-        scaledClip = scaleInstance.createTransformedShape(clippingShape);
+        
+        //Only rescale when the shape, clip, or unit size has changed since the last paint, large paths are costly to copy
+        if (scaledShape == null || scaledUnitSize != unitSize || scaledShapeSource != shape || scaledClipSource != clippingShape) {
+            AffineTransform scaleInstance = AffineTransform.getScaleInstance(unitSize, unitSize);
+            scaledShape = scaleInstance.createTransformedShape(shape);
+            scaledClip = scaleInstance.createTransformedShape(clippingShape);
+            scaledUnitSize = unitSize;
+            scaledShapeSource = shape;
+            scaledClipSource = clippingShape;
+        }
+        
+        paintedShape = scaledShape;
+        LevelOfDetail detail = LevelOfDetail.get(g);
+        if (scaledShape != null && detail != null && detail.isSimplified(g, width, height)) {
+            double flatness = detail.getFlatness(g);
+            if (simplifiedShape == null || simplifiedSource != scaledShape || simplifiedFlatness != flatness) {
+                simplifiedShape = simplify(scaledShape, flatness);
+                simplifiedSource = scaledShape;
+                simplifiedFlatness = flatness;
+            }
+            paintedShape = simplifiedShape;
+        }
         
         super.paint(g, unitSize, width, height);
 
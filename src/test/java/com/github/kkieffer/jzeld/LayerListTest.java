@@ -0,0 +1,167 @@
+package com.github.kkieffer.jzeld;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The treap backed list, checked against an ArrayList making the same changes
+ * @author kkieffer
+ */
+public class LayerListTest {
+    
+    //An item in the list, which compares items by identity
+    private static final class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int id;
+        
+        Item(int id) {
+            this.id = id;
+        }
+    }
+    
+    private final Random random = new Random(1);
+    private int nextId = 0;
+    
+    private static void assertSameOrder(ArrayList<Item> expected, LayerList<Item> list) {
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), list.get(i));
+            assertEquals(i, list.indexOf(expected.get(i)));  //the rank of each item
+        }
+        
+        Iterator<Item> it = list.iterator();
+        for (Item item : expected)
+            assertSame(item, it.next());
+        assertFalse(it.hasNext());
+        
+        Iterator<Item> descending = list.descendingIterator();
+        for (int i = expected.size() - 1; i >= 0; i--)
+            assertSame(expected.get(i), descending.next());
+        assertFalse(descending.hasNext());
+    }
+    
+    //Make random changes to both lists
+    private void change(ArrayList<Item> expected, LayerList<Item> list, int count) {
+        for (int n = 0; n < count; n++) {
+            int op = random.nextInt(5);
+            if (expected.isEmpty() || op < 2) {
+                int index = random.nextInt(expected.size() + 1);
+                Item item = new Item(nextId++);
+                expected.add(index, item);
+                list.add(index, item);
+            }
+            else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), list.remove(index));
+            }
+            else if (op == 3) {
+                Item item = expected.remove(random.nextInt(expected.size()));
+                assertTrue(list.remove(item));
+            }
+            else {
+                int index = random.nextInt(expected.size());
+                Item item = new Item(nextId++);
+                assertSame(expected.set(index, item), list.set(index, item));
+            }
+        }
+    }
+    
+    @Test
+    public void orderStatistics() {
+        ArrayList<Item> expected = new ArrayList<>();
+        LayerList<Item> list = new LayerList<>();
+        
+        change(expected, list, 5000);
+        assertSameOrder(expected, list);
+        
+        Item removed = new Item(-1);
+        assertFalse(list.contains(removed));
+        assertEquals(-1, list.indexOf(removed));
+        assertFalse(list.remove(removed));
+        
+        Item top = new Item(nextId++);
+        Item bottom = new Item(nextId++);
+        list.addFirst(top);
+        list.addLast(bottom);
+        expected.add(0, top);
+        expected.add(bottom);
+        assertSame(top, list.getFirst());
+        assertSame(bottom, list.getLast());
+        assertSameOrder(expected, list);
+    }
+    
+    @Test
+    public void iteratorRemove() {
+        ArrayList<Item> expected = new ArrayList<>();
+        LayerList<Item> list = new LayerList<>();
+        change(expected, list, 500);
+        
+        Iterator<Item> it = list.iterator();
+        Iterator<Item> expectedIt = expected.iterator();
+        while (it.hasNext()) {
+            assertSame(expectedIt.next(), it.next());
+            if (random.nextBoolean()) {
+                it.remove();
+                expectedIt.remove();
+            }
+        }
+        assertSameOrder(expected, list);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void itemsHeldOnce() {
+        LayerList<Item> list = new LayerList<>();
+        Item item = new Item(0);
+        list.add(item);
+        list.add(item);
+    }
+    
+    @Test
+    public void clear() {
+        ArrayList<Item> expected = new ArrayList<>();
+        LayerList<Item> list = new LayerList<>();
+        change(expected, list, 300);
+        
+        list.clear();
+        assertTrue(list.isEmpty());
+        assertFalse(list.iterator().hasNext());
+        
+        expected.clear();
+        change(expected, list, 300);  //still usable
+        assertSameOrder(expected, list);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serialization() throws Exception {
+        ArrayList<Item> expected = new ArrayList<>();
+        LayerList<Item> list = new LayerList<>();
+        change(expected, list, 1000);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(expected);  //the items, to be shared with the list in the same stream
+            out.writeObject(list);
+        }
+        
+        ArrayList<Item> expectedRead;
+        LayerList<Item> read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            expectedRead = (ArrayList<Item>)in.readObject();
+            read = (LayerList<Item>)in.readObject();
+        }
+        assertSameOrder(expectedRead, read);
+        
+        change(expectedRead, read, 1000);  //still a valid tree
+        assertSameOrder(expectedRead, read);
+    }
+    
+}
@@ -0,0 +1,78 @@
+package com.github.kkieffer.jzeld;
+
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import com.github.kkieffer.jzeld.element.ZRectangle;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Measures the memory allocated and the time taken to repaint an unchanged scene of 200 shapes, which should reuse its strokes, fonts,
+ * composites, and clips rather than creating them each frame.  Allocation is checked, time is only reported because it depends on the machine.
+ * The allocation depends on the JVM and its graphics pipeline, so the test only runs when requested with -Djzeld.perfTests=true.
+ * @author kkieffer
+ */
+public class PaintAllocationTest {
+    
+    private static final int WARMUP_FRAMES = 100;
+    private static final int FRAMES = 300;
+    private static final long MAX_BYTES_PER_FRAME = 64 * 1024;  //about 500 KB before strokes and clips were reused
+    
+    private static ZCanvas createScene() {
+        ZCanvas c = new ZCanvas(Color.WHITE, new Font("Dialog", Font.PLAIN, 12), UnitMeasure.inchUnit, Color.BLUE, 10, new Point(0, 0), new Dimension(800, 600));
+        c.setSize(800, 600);
+        c.setHighlightAnimation(ZCanvas.HighlightAnimation.None);
+        
+        ZRectangle selected = null;
+        for (int i = 0; i < 200; i++) {
+            Float[] dash = i % 3 == 0 ? new Float[] {0.1f, 0.05f} : null;
+            ZRectangle r = new ZRectangle((i % 20) * 0.5, (i / 20) * 0.6, 1.0, 0.7, i * 13, true, true, true, 2, Color.BLACK, dash, new Color(i, 100, 200), StrokeStyle.SQUARE);
+            r.setOpacity(0.8f);
+            c.addElement(r);
+            if (i == 50)
+                selected = r;
+        }
+        c.selectElement(selected, false);
+        return c;
+    }
+    
+    //Repaint the whole scene for each frame, returns the bytes allocated per frame
+    private static long paintFrames(ZCanvas c, BufferedImage target, int frames, com.sun.management.ThreadMXBean mx) {
+        long id = Thread.currentThread().getId();
+        long start = mx.getThreadAllocatedBytes(id);
+        for (int i = 0; i < frames; i++) {
+            c.repaint();  //damages the whole scene
+            Graphics2D g = target.createGraphics();
+            c.paintComponent(g);
+            g.dispose();
+        }
+        return (mx.getThreadAllocatedBytes(id) - start) / frames;
+    }
+    
+    @Test
+    public void unchangedSceneRepaint() {
+        Assume.assumeTrue(Boolean.getBoolean("jzeld.perfTests"));
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled());
+        
+        ZCanvas c = createScene();
+        BufferedImage target = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+        paintFrames(c, target, WARMUP_FRAMES, mx);
+        
+        long start = System.nanoTime();
+        long bytes = paintFrames(c, target, FRAMES, mx);
+        long micros = (System.nanoTime() - start) / FRAMES / 1000;
+        System.out.println("Repaint of 200 shapes: " + bytes + " bytes and " + micros + " us per frame");
+        
+        assertTrue("Allocated " + bytes + " bytes per frame", bytes < MAX_BYTES_PER_FRAME);
+    }
+    
+}
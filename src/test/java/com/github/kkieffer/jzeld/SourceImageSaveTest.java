@@ -0,0 +1,139 @@
+package com.github.kkieffer.jzeld;
+
+import com.github.kkieffer.jzeld.adapters.ImageSource;
+import com.github.kkieffer.jzeld.adapters.SerializableImage;
+import com.github.kkieffer.jzeld.element.ZElement;
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import com.github.kkieffer.jzeld.element.ZImage;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Saving and loading images imported from an ImageSource, which are written once and referred to by key afterwards
+ * @author kkieffer
+ */
+public class SourceImageSaveTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private static ZCanvas createCanvas() {
+        ZCanvas c = new ZCanvas(Color.WHITE, new Font("Dialog", Font.PLAIN, 12), UnitMeasure.inchUnit, Color.BLUE, 10, new Point(0, 0), new Dimension(720, 576));
+        c.setPageSize(new Dimension(720, 576), ZCanvas.Orientation.PORTRAIT);
+        return c;
+    }
+    
+    private static ZImage createImage(ImageSource source) throws Exception {
+        ZImage z = new ZImage(1, 1, 2, 2, 0, true, true, true, 0, null, null, null, StrokeStyle.SQUARE, null);
+        z.setImageSource(source);
+        return z;
+    }
+    
+    @Test
+    public void sharedFileSourceRoundTrip() throws Exception {
+        BufferedImage img = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 20, 30);
+        g.dispose();
+        File imageFile = folder.newFile("shared.png");
+        ImageIO.write(img, "png", imageFile);
+        
+        ImageSource source = ImageSource.fromFile(imageFile);
+        ZCanvas c = createCanvas();
+        c.addElement(createImage(source));
+        c.addElement(createImage(source));
+        
+        File saveFile = folder.newFile("canvas.xml");
+        CanvasSave.toFile(c, saveFile);
+        ZCanvas loaded = CanvasSave.fromFile(saveFile);
+        
+        ZElement[] images = loaded.getElementsByClass(ZImage.class);
+        assertEquals(2, images.length);
+        for (ZElement e : images) {
+            ZImage z = (ZImage)e;
+            assertNotNull("Image lost on load", z.getImage());
+            assertNotNull(z.getImageSource());
+            assertEquals(40, z.getImageSource().getWidth());
+            assertEquals(30, z.getImageSource().getHeight());
+        }
+        assertSame(((ZImage)images[0]).getImageSource(), ((ZImage)images[1]).getImageSource());
+    }
+    
+    @Test
+    public void fileAndBytesSourcesShareEntry() throws Exception {
+        BufferedImage img = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        File imageFile = folder.newFile("small.png");
+        ImageIO.write(img, "png", imageFile);
+        
+        ImageSource fromFile = ImageSource.fromFile(imageFile);
+        SerializableImage a = new SerializableImage(fromFile, 100);
+        SerializableImage b = new SerializableImage(ImageSource.fromBytes(Files.readAllBytes(imageFile.toPath())), 100);
+        assertSame(a.getSource(), b.getSource());
+    }
+    
+    @Test
+    public void largeEncodedImageLoadedToFile() throws Exception {
+        BufferedImage img = new BufferedImage(1500, 1500, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++)
+                img.setRGB(x, y, random.nextInt());  //noise, so the file is several megabytes
+        }
+        File imageFile = folder.newFile("large.png");
+        ImageIO.write(img, "png", imageFile);
+        byte[] encoded = Files.readAllBytes(imageFile.toPath());
+        assertTrue(encoded.length > 4 * 1024 * 1024);
+        
+        JAXBContext context = JAXBContext.newInstance(SerializableImage.class);
+        StringWriter xml = new StringWriter();
+        SerializableImage saved = new SerializableImage(ImageSource.fromFile(imageFile), 10000);
+        context.createMarshaller().marshal(saved, xml);
+        assertTrue(xml.toString().indexOf("<EncodedImage>") != xml.toString().lastIndexOf("<EncodedImage>"));  //written in chunks
+        
+        //Release the saved image, so the loaded one is not matched to its file
+        WeakReference<SerializableImage> released = new WeakReference<>(saved);
+        saved = null;
+        for (int i = 0; i < 50 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Saved image still held", released.get());
+        imageFile.delete();
+        
+        SerializableImage loaded = (SerializableImage)context.createUnmarshaller().unmarshal(new StringReader(xml.toString()));
+        ImageSource source = loaded.getSource();
+        assertEquals(0, source.getMemoryEstimate());  //held in a file, not in memory
+        assertEquals(encoded.length, source.getLength());
+        assertTrue(Arrays.equals(encoded, source.getBytes(0, encoded.length)));
+    }
+    
+    @Test(expected = UnmarshalException.class)
+    public void unknownReferenceFails() throws Exception {
+        String xml = "<SerializableImage><ImageRef>source:0-missing</ImageRef></SerializableImage>";
+        Unmarshaller u = JAXBContext.newInstance(SerializableImage.class).createUnmarshaller();
+        u.setEventHandler(new DefaultValidationEventHandler());  //stop on errors
+        u.unmarshal(new StringReader(xml));
+    }
+    
+}
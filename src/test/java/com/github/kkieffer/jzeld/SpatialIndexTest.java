@@ -0,0 +1,131 @@
+package com.github.kkieffer.jzeld;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The R-tree, checked against a search of every item
+ * @author kkieffer
+ */
+public class SpatialIndexTest {
+    
+    private static final int ITEMS = 2000;  //enough to split nodes several levels deep
+    
+    //An item in the index, which compares items by identity
+    private static final class Item {
+        Rectangle2D bounds;
+        boolean indexed;
+    }
+    
+    private final Random random = new Random(1);
+    private final ArrayList<Item> items = new ArrayList<>();
+    private final SpatialIndex<Item> index = new SpatialIndex<>();
+    
+    private Rectangle2D randomBounds() {
+        return new Rectangle2D.Double(random.nextDouble() * 1000, random.nextDouble() * 1000, random.nextDouble() * 50, random.nextDouble() * 50);
+    }
+    
+    private void fill() {
+        for (int i = 0; i < ITEMS; i++) {
+            Item item = new Item();
+            item.bounds = randomBounds();
+            item.indexed = true;
+            items.add(item);
+            index.put(item, item.bounds);
+        }
+    }
+    
+    private HashSet<Item> search(Rectangle2D region) {
+        HashSet<Item> found = new HashSet<>();
+        for (Item item : items) {
+            Rectangle2D b = item.bounds;
+            if (item.indexed && b.getMinX() <= region.getMaxX() && b.getMaxX() >= region.getMinX() && b.getMinY() <= region.getMaxY() && b.getMaxY() >= region.getMinY())
+                found.add(item);
+        }
+        return found;
+    }
+    
+    private void checkQueries() {
+        for (int q = 0; q < 200; q++) {
+            Rectangle2D region = randomBounds();
+            assertEquals(search(region), index.query(region, new HashSet<Item>()));
+            
+            Point2D p = new Point2D.Double(region.getX(), region.getY());
+            assertEquals(search(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0)), index.query(p, new HashSet<Item>()));
+        }
+    }
+    
+    private static void assertBounds(Rectangle2D expected, Rectangle2D actual) {
+        assertEquals(expected.getMinX(), actual.getMinX(), 1e-9);
+        assertEquals(expected.getMinY(), actual.getMinY(), 1e-9);
+        assertEquals(expected.getMaxX(), actual.getMaxX(), 1e-9);
+        assertEquals(expected.getMaxY(), actual.getMaxY(), 1e-9);
+    }
+    
+    @Test
+    public void insertAndQuery() {
+        fill();
+        
+        assertEquals(ITEMS, index.size());
+        for (Item item : items) {
+            assertTrue(index.contains(item));
+            assertBounds(item.bounds, index.getBounds(item));
+        }
+        assertEquals(ITEMS, index.query(new Rectangle2D.Double(-1, -1, 2000, 2000), new ArrayList<Item>()).size());
+        checkQueries();
+    }
+    
+    @Test
+    public void removeAndQuery() {
+        fill();
+        
+        for (int i = 0; i < ITEMS; i += 2) {
+            Item item = items.get(i);
+            assertTrue(index.remove(item));
+            item.indexed = false;
+        }
+        Item removed = items.get(0);
+        assertFalse(index.remove(removed));
+        assertFalse(index.contains(removed));
+        assertNull(index.getBounds(removed));
+        assertEquals(ITEMS / 2, index.size());
+        checkQueries();
+        
+        for (int i = 1; i < ITEMS; i += 2)  //condense down to an empty root
+            assertTrue(index.remove(items.get(i)));
+        assertEquals(0, index.size());
+        assertTrue(index.query(new Rectangle2D.Double(-1, -1, 2000, 2000), new ArrayList<Item>()).isEmpty());
+        
+        index.put(removed, removed.bounds);  //still usable
+        assertEquals(1, index.query(removed.bounds, new ArrayList<Item>()).size());
+    }
+    
+    @Test
+    public void moveAndQuery() {
+        fill();
+        
+        for (int i = 0; i < ITEMS; i += 3) {
+            Item item = items.get(i);
+            item.bounds = randomBounds();
+            index.put(item, item.bounds);
+        }
+        assertEquals(ITEMS, index.size());
+        checkQueries();
+    }
+    
+    @Test
+    public void clear() {
+        fill();
+        
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.contains(items.get(1)));
+        assertTrue(index.query(new Rectangle2D.Double(-1, -1, 2000, 2000), new ArrayList<Item>()).isEmpty());
+    }
+    
+}
@@ -0,0 +1,215 @@
+package com.github.kkieffer.jzeld;
+
+import com.github.kkieffer.jzeld.element.ZElement;
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import com.github.kkieffer.jzeld.element.ZImage;
+import com.github.kkieffer.jzeld.element.ZRectangle;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The undo history, its memory accounting, and its compressed and spilled steps
+ * @author kkieffer
+ */
+public class UndoStackTest {
+    
+    private static ZRectangle createRectangle(double x) {
+        return new ZRectangle(x, 0, 1, 1, 0, true, true, true, 0, null, null, Color.RED, StrokeStyle.SQUARE);
+    }
+    
+    private static ZImage createImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, (int)System.nanoTime());  //not shared with images from other tests
+        return new ZImage(0, 0, 1, 1, 0, true, true, true, 0, null, null, null, StrokeStyle.SQUARE, img);
+    }
+    
+    //Reset the history and save before the first change, as the canvas does, which copies the starting state
+    private static void start(UndoStack stack, ArrayList<ZElement> elements) {
+        stack.reset(elements);
+        stack.saveContext(elements);
+    }
+    
+    //Move the element and save the change as one step
+    private static void move(UndoStack stack, ArrayList<ZElement> elements, ZElement e) {
+        e.move(1, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        stack.elementChanged(e);
+        stack.saveContext(elements);
+    }
+    
+    @Test
+    public void sharedImageCountedOnce() throws Exception {
+        ZImage image = createImage(1000, 1000);
+        long pixels = 1000L * 1000 * 4;
+        
+        ArrayList<ZElement> elements = new ArrayList<>();
+        elements.add(image);
+        UndoStack stack = new UndoStack(100);
+        start(stack, elements);
+        
+        for (int i = 0; i < 20; i++)
+            move(stack, elements, image);
+        stack.waitForPacking();
+        
+        //The baseline holds the image, and every step shares it
+        long usage = stack.getMemoryUsage();
+        assertTrue("Baseline not counted: " + usage, usage >= pixels);
+        assertTrue("Shared image counted more than once: " + usage, usage < pixels + 64 * 1024);
+    }
+    
+    @Test
+    public void budgetIncludesHistoryOnlyImages() throws Exception {
+        ArrayList<ZElement> elements = new ArrayList<>();
+        UndoStack stack = new UndoStack(100);
+        start(stack, elements);
+        stack.setMemoryBudget(10L * 1024 * 1024, Long.MAX_VALUE);
+        
+        //Each image is removed, so only the history holds it
+        long pixels = 1000L * 1000 * 4;
+        for (int i = 0; i < 8; i++) {
+            ZImage image = createImage(1000, 1000);
+            elements.add(image);
+            stack.orderChanged();
+            stack.saveContext(elements);
+            elements.remove(image);
+            stack.orderChanged();
+            stack.saveContext(elements);
+        }
+        stack.waitForPacking();
+        
+        long usage = stack.getMemoryUsage();
+        assertTrue("History over budget: " + usage, usage <= 10L * 1024 * 1024 + pixels);
+        
+        //All images can still be restored, newest first
+        for (int i = 0; i < 16; i++)
+            assertNotNull(stack.undo(elements));
+        assertNull(stack.undo(elements));
+    }
+    
+    private static ArrayList<ZElement> createRectangles(int count) {
+        ArrayList<ZElement> elements = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            elements.add(createRectangle(i * 10));
+        return elements;
+    }
+    
+    private static double getX(UndoStack.Change change, ZElement e) {
+        ZElement state = change.getStates().get(e.getUUID());
+        assertNotNull("Element not in the change", state);
+        assertNotSame(e, state);  //a copy held by the stack
+        return state.getBounds2D().getX();
+    }
+    
+    @Test
+    public void undoRedoChangedElements() {
+        ArrayList<ZElement> elements = createRectangles(5);
+        UndoStack stack = new UndoStack(10);
+        start(stack, elements);
+        
+        ZElement moved = elements.get(2);
+        move(stack, elements, moved);
+        
+        ZElement renamed = elements.get(3);
+        String name = renamed.getName();
+        renamed.setName("Renamed");
+        stack.elementChanged(renamed);
+        stack.saveContext(elements);
+        
+        UndoStack.Change change = stack.undo(elements);
+        assertEquals(1, change.getStates().size());  //only the changed element
+        assertNull(change.getOrder());
+        assertEquals(name, change.getStates().get(renamed.getUUID()).getName());
+        
+        change = stack.undo(elements);
+        assertEquals(1, change.getStates().size());
+        assertEquals(20, getX(change, moved), 0);
+        assertNull(stack.undo(elements));
+        
+        change = stack.redo(elements);
+        assertEquals(21, getX(change, moved), 0);
+        change = stack.redo(elements);
+        assertEquals("Renamed", change.getStates().get(renamed.getUUID()).getName());
+        assertNull(stack.redo(elements));
+    }
+    
+    @Test
+    public void undoRedoOrder() {
+        ArrayList<ZElement> elements = createRectangles(3);
+        UndoStack stack = new UndoStack(10);
+        start(stack, elements);
+        
+        ArrayList<UUID> before = new ArrayList<>();
+        for (ZElement e : elements)
+            before.add(e.getUUID());
+        
+        ZElement added = createRectangle(100);
+        elements.add(0, added);
+        stack.orderChanged();
+        stack.saveContext(elements);
+        
+        UndoStack.Change change = stack.undo(elements);
+        assertEquals(before, change.getOrder());
+        assertTrue(change.getStates().containsKey(added.getUUID()));
+        assertNull(change.getStates().get(added.getUUID()));  //not on the canvas before it was added
+        
+        change = stack.redo(elements);
+        assertEquals(added.getUUID(), change.getOrder().get(0));
+        assertEquals(100, getX(change, added), 0);
+    }
+    
+    @Test
+    public void undoRedoAcrossPackAndSpill() throws Exception {
+        ArrayList<ZElement> elements = createRectangles(10);
+        UndoStack stack = new UndoStack(100);
+        start(stack, elements);
+        stack.setMemoryBudget(0, 0);  //compress and spill every step
+        
+        final int steps = 30;
+        for (int i = 0; i < steps; i++)
+            move(stack, elements, elements.get(i % elements.size()));
+        stack.waitForPacking();
+        assertTrue(stack.getSpilledUsage() > 0);
+        
+        //Each element moved three times, undo them newest first
+        for (int i = steps - 1; i >= 0; i--) {
+            ZElement e = elements.get(i % elements.size());
+            UndoStack.Change change = stack.undo(elements);
+            assertEquals(1, change.getStates().size());
+            assertEquals((i % elements.size()) * 10 + i / elements.size(), getX(change, e), 0);
+        }
+        assertNull(stack.undo(elements));
+        stack.waitForPacking();
+        
+        for (int i = 0; i < steps; i++) {
+            ZElement e = elements.get(i % elements.size());
+            UndoStack.Change change = stack.redo(elements);
+            assertEquals((i % elements.size()) * 10 + i / elements.size() + 1, getX(change, e), 0);
+        }
+        assertNull(stack.redo(elements));
+        
+        stack.clear();
+        assertEquals(0, stack.getSpilledUsage());
+    }
+    
+    @Test
+    public void baselineCounted() {
+        ArrayList<ZElement> elements = createRectangles(100);
+        UndoStack stack = new UndoStack(10);
+        stack.reset(elements);
+        assertEquals(0, stack.getMemoryUsage());  //not copied until the first save
+        
+        elements.get(0).move(1, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);  //before the first save, part of the starting state
+        stack.elementChanged(elements.get(0));
+        stack.saveContext(elements);
+        
+        long estimate = 0;
+        for (ZElement e : elements)
+            estimate += e.getMemoryEstimate();
+        assertEquals(estimate, stack.getMemoryUsage());  //no steps yet, only the baseline
+        assertNull(stack.undo(elements));
+    }
+    
+}
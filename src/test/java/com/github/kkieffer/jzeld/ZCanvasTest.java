@@ -0,0 +1,137 @@
+package com.github.kkieffer.jzeld;
+
+import com.github.kkieffer.jzeld.element.ZElement;
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import com.github.kkieffer.jzeld.element.ZRectangle;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Adding, removing, and replacing elements on the canvas, and undoing those changes
+ * @author kkieffer
+ */
+public class ZCanvasTest {
+
+    private static ZCanvas createCanvas() {
+        ZCanvas c = new ZCanvas(Color.WHITE, new Font("Dialog", Font.PLAIN, 12), UnitMeasure.inchUnit, Color.BLUE, 10, new Point(0, 0), new Dimension(720, 576));
+        c.setPageSize(new Dimension(720, 576), ZCanvas.Orientation.PORTRAIT);
+        return c;
+    }
+
+    private static ZRectangle createRectangle(double x) {
+        return new ZRectangle(x, 0, 1, 1, 0, true, true, true, 0, null, null, Color.RED, StrokeStyle.SQUARE);
+    }
+
+    private static double getX(ZCanvas c, ZElement e) {
+        ZElement onCanvas = c.getElementByUUID(e.getUUID());
+        assertNotNull("Element not on the canvas", onCanvas);
+        return onCanvas.getBounds2D().getX();
+    }
+
+    private static Color getFill(ZCanvas c, ZElement e) {
+        return c.getElementByUUID(e.getUUID()).getFillColor();
+    }
+
+    @Test
+    public void replaceWithSameUuidUndone() {
+        ZCanvas c = createCanvas();
+        ZRectangle r = createRectangle(10);
+        ZRectangle other = createRectangle(20);
+        c.addElements(Arrays.asList(r, other));
+
+        c.selectElement(other, false);
+        c.setFillColor(Color.GREEN);  //saves the addition as its own step
+        c.selectNone();
+
+        ZElement edited = r.copyOf(false);  //an edited copy, with the same UUID
+        edited.move(5, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertTrue(c.replaceElement(r, edited));
+        assertEquals(15, getX(c, r), 0);
+
+        c.undo();  //the replacement
+        assertEquals(10, getX(c, r), 0);
+        assertEquals(Color.GREEN, getFill(c, other));
+
+        c.undo();  //the fill of the other element
+        assertEquals(10, getX(c, r), 0);
+        assertEquals(Color.RED, getFill(c, other));
+
+        c.redo();
+        c.redo();
+        assertEquals(15, getX(c, r), 0);
+        assertEquals(Color.GREEN, getFill(c, other));
+    }
+
+    @Test
+    public void replaceSkipsInvalidReplacements() {
+        ZCanvas c = createCanvas();
+        ZRectangle a = createRectangle(10);
+        ZRectangle b = createRectangle(20);
+        ZRectangle d = createRectangle(30);
+        c.addElements(Arrays.asList(a, b, d));
+
+        HashMap<ZElement, ZElement> replacements = new HashMap<>();
+        replacements.put(a, null);
+        replacements.put(b, d);  //already on the canvas
+        assertEquals(0, c.replaceElements(replacements));
+        assertEquals(3, c.getNumElements());
+        assertSame(a, c.getElementByUUID(a.getUUID()));
+        assertSame(b, c.getElementByUUID(b.getUUID()));
+
+        ZRectangle with = createRectangle(40);
+        replacements.clear();
+        replacements.put(a, with);
+        replacements.put(b, with);  //only placed once
+        assertEquals(1, c.replaceElements(replacements));
+        assertEquals(3, c.getNumElements());
+        assertSame(with, c.getElementByUUID(with.getUUID()));
+    }
+
+    @Test
+    public void removingSelectedNotifiesOnce() {
+        ZCanvas c = createCanvas();
+        ArrayList<ZElement> elements = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            elements.add(createRectangle(i * 10));
+        c.addElements(elements);
+        c.selectAll();
+
+        final ArrayList<ZElement> notified = new ArrayList<>();
+        c.registerEventListener(new ZCanvasEventListener() {
+            @Override
+            public void elementSelected(ZElement e) {
+                notified.add(e);
+            }
+            @Override
+            public void elementEdited(ZElement e, boolean supportsEdit) {}
+            @Override
+            public void canvasHasDrawClient(boolean hasClient) {}
+            @Override
+            public void canvasRepainted() {}
+            @Override
+            public void canvasChangedZoom() {}
+            @Override
+            public void canvasMousePress(Point2D mouseLoc, ZElement selected) {}
+        });
+
+        assertEquals(3, c.removeElements(elements.subList(0, 3)));
+        assertEquals(1, notified.size());
+        assertTrue(notified.get(0) == elements.get(3) || notified.get(0) == elements.get(4));
+        assertSame(notified.get(0), c.getLastSelectedElement());
+
+        notified.clear();
+        assertEquals(2, c.removeElements(elements));
+        assertEquals(1, notified.size());
+        assertNull(notified.get(0));  //nothing remains selected
+        assertNull(c.getLastSelectedElement());
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.github.kkieffer.jzeld.adapters;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Random;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Sharing images with identical pixels in the ImageStore, and dropping them once unreferenced
+ * @author kkieffer
+ */
+public class ImageStoreTest {
+    
+    private static final Random random = new Random();
+    
+    //An image with random pixels, so it isn't shared with images from other tests in the JVM-wide store
+    private static BufferedImage createImage() {
+        BufferedImage img = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++)
+                img.setRGB(x, y, random.nextInt());
+        }
+        return img;
+    }
+    
+    @Test
+    public void identicalImagesShareEntry() {
+        BufferedImage a = createImage();
+        BufferedImage b = SerializableImage.copyImage(a);
+        
+        ImageStore.Entry e = ImageStore.intern(a, true);
+        assertSame(e, ImageStore.intern(b, true));
+        assertSame(e, ImageStore.get(e.getKey()));
+        assertNotSame(a, e.getImage());  //copied, so the caller can keep changing theirs
+        
+        assertNotSame(e, ImageStore.intern(createImage(), true));
+        assertNull(ImageStore.intern(null, true));
+    }
+    
+    @Test
+    public void copyProtectsCaller() {
+        BufferedImage a = createImage();
+        int pixel = a.getRGB(0, 0);
+        ImageStore.Entry e = ImageStore.intern(a, true);
+        
+        a.setRGB(0, 0, ~pixel);
+        assertEquals(pixel, e.getImage().getRGB(0, 0));
+        assertNotSame(e, ImageStore.intern(a, true));  //now different pixels
+    }
+    
+    @Test
+    public void sharedBySerializableImages() {
+        BufferedImage a = createImage();
+        SerializableImage s1 = new SerializableImage(a);
+        SerializableImage s2 = new SerializableImage(SerializableImage.copyImage(a));
+        SerializableImage s3 = new SerializableImage(s1);
+        
+        assertSame(s1.getImage(), s2.getImage());
+        assertSame(s1.getImage(), s3.getImage());
+    }
+    
+    @Test
+    public void unreferencedEntryPurged() throws Exception {
+        ImageStore.Entry e = ImageStore.intern(createImage(), false);
+        String key = e.getKey();
+        e = null;
+        
+        ArrayList<byte[]> pressure = new ArrayList<>();
+        for (int i = 0; i < 50 && ImageStore.get(key) != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pressure.add(new byte[1024 * 1024]);
+        }
+        assertNull("Entry still held", ImageStore.get(key));
+        
+        ImageStore.size();  //purges the released entries
+        BufferedImage img = createImage();
+        assertNotNull(ImageStore.intern(img, false));  //the store is still usable
+    }
+    
+    @Test
+    public void deserializedImagesMatchStore() throws Exception {
+        SerializableImage s1 = new SerializableImage(createImage());
+        SerializableImage s2 = new SerializableImage(s1);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(s1);
+            out.writeObject(s2);
+        }
+        
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            SerializableImage r1 = (SerializableImage)in.readObject();
+            SerializableImage r2 = (SerializableImage)in.readObject();
+            assertSame(s1.getImage(), r1.getImage());  //matched to the entry already in the store
+            assertSame(s1.getImage(), r2.getImage());
+        }
+    }
+    
+    @Test
+    public void saveWritesImageOnce() throws Exception {
+        ImageStore.Entry e = ImageStore.intern(createImage(), false);
+        SerializableImage first = new SerializableImage();
+        SerializableImage second = new SerializableImage();
+        
+        ImageStore.beginSave(JAXBContext.newInstance(SerializableImage.class).createMarshaller());
+        try {
+            assertTrue(ImageStore.setSaved(e, first));
+            assertTrue(ImageStore.setSaved(e, first));  //asked again by the same holder
+            assertFalse(ImageStore.setSaved(e, second));
+            assertNull(ImageStore.getSavedKey(e, first));
+            assertEquals(e.getKey(), ImageStore.getSavedKey(e, second));
+        } finally {
+            ImageStore.endSave();
+        }
+        
+        assertTrue(ImageStore.setSaved(e, second));  //no save in progress, every holder writes its image
+        assertNull(ImageStore.getSavedKey(e, second));
+    }
+    
+    @Test
+    public void failedSaveDiscarded() throws Exception {
+        BufferedImage img = createImage();
+        SerializableImage first = new SerializableImage(img);
+        SerializableImage second = new SerializableImage(img);
+        
+        //A save that wrote the image and failed before it ended
+        JAXBContext context = JAXBContext.newInstance(SerializableImage.class);
+        ImageStore.beginSave(context.createMarshaller());
+        ImageStore.Entry e = ImageStore.get(ImageStore.intern(img, false).getKey());
+        assertTrue(ImageStore.setSaved(e, first));
+        
+        //The next save on this thread writes the image, rather than referring to one in the other file
+        StringWriter xml = new StringWriter();
+        context.createMarshaller().marshal(second, xml);
+        assertTrue(xml.toString().contains("<Image>"));
+        assertFalse(xml.toString().contains("<ImageRef>"));
+        assertNull(ImageStore.getSavedKey(e, second));  //no save in progress
+    }
+    
+    @Test
+    public void typesNotMerged() {
+        BufferedImage rgb = createImage();
+        BufferedImage argb = new BufferedImage(rgb.getWidth(), rgb.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        argb.getGraphics().drawImage(rgb, 0, 0, null);
+        
+        ImageStore.Entry a = ImageStore.intern(rgb, true);
+        ImageStore.Entry b = ImageStore.intern(argb, true);
+        assertNotSame(a, b);
+        assertEquals(BufferedImage.TYPE_INT_RGB, a.getImage().getType());
+        assertEquals(BufferedImage.TYPE_INT_ARGB, b.getImage().getType());
+    }
+    
+    @Test
+    public void referenceFoundWhenLoadedAsAnotherType() throws Exception {
+        SerializableImage first = new SerializableImage(createImage());
+        SerializableImage second = new SerializableImage(first);
+        
+        JAXBContext context = JAXBContext.newInstance(SerializableImage.class);
+        Marshaller m = context.createMarshaller();
+        StringWriter xml1 = new StringWriter();
+        StringWriter xml2 = new StringWriter();
+        ImageStore.beginSave(m);
+        try {
+            m.marshal(first, xml1);
+            m.marshal(second, xml2);
+        } finally {
+            ImageStore.endSave();
+        }
+        assertTrue(xml1.toString().contains("<ImageKey>"));
+        assertTrue(xml2.toString().contains("<ImageRef>"));
+        
+        //Release the saved images, so the loaded image, read back as another type, is not matched to them
+        WeakReference<SerializableImage> released = new WeakReference<>(first);
+        first = null;
+        second = null;
+        for (int i = 0; i < 50 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Saved image still held", released.get());
+        
+        Unmarshaller u = context.createUnmarshaller();
+        SerializableImage loaded1 = (SerializableImage)u.unmarshal(new StringReader(xml1.toString()));
+        SerializableImage loaded2 = (SerializableImage)u.unmarshal(new StringReader(xml2.toString()));
+        assertNotEquals(BufferedImage.TYPE_INT_RGB, ((BufferedImage)loaded1.getImage()).getType());
+        assertSame(loaded1.getImage(), loaded2.getImage());
+    }
+    
+}
@@ -0,0 +1,44 @@
+package com.github.kkieffer.jzeld.element;
+
+import com.github.kkieffer.jzeld.attributes.TextAttributes;
+import com.github.kkieffer.jzeld.attributes.TextAttributes.HorizontalJustify;
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import java.awt.Color;
+import java.awt.Font;
+import javax.swing.SwingUtilities;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Changes reported by the editable text, which are recorded in the undo history
+ * @author kkieffer
+ */
+public class ZEditableTextTest {
+    
+    //Run the tasks the text element queued on the event dispatch thread
+    private static void flush() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {}
+        });
+    }
+    
+    @Test
+    public void caretMoveIsNotAChange() throws Exception {
+        TextAttributes attr = new TextAttributes(HorizontalJustify.LEFT, new Font("Dialog", Font.PLAIN, 12), Color.BLACK);
+        ZEditableText t = new ZEditableText(0, 0, 0, 0, 0, true, "Hello", 1, Color.BLACK, null, StrokeStyle.SQUARE, attr);
+        flush();
+        t.wasSaved();
+        
+        t.textWidget.setCaretPosition(3);
+        flush();
+        flush();
+        assertFalse(t.hasChanges());
+        
+        t.textWidget.getDocument().insertString(3, "p", null);
+        flush();
+        assertTrue(t.hasChanges());
+        assertEquals("Helplo", t.textWidget.getText());
+    }
+    
+}
@@ -0,0 +1,30 @@
+package com.github.kkieffer.jzeld.element;
+
+import com.github.kkieffer.jzeld.element.ZElement.StrokeStyle;
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Geometry shared between a shape and its copies, which callers must not be able to modify
+ * @author kkieffer
+ */
+public class ZShapeTest {
+
+    @Test
+    public void clippingShapeNotShared() {
+        ZShape r = new ZShape(0, 0, new Rectangle2D.Double(0, 0, 10, 10), 0, true, true, true, 0, null, null, Color.RED, null, null, null, StrokeStyle.SQUARE);
+        r.setClippingShape(new Rectangle2D.Double(2, 2, 4, 4));
+        ZShape copy = (ZShape)r.copyOf(false);
+
+        Path2D clip = (Path2D)copy.getClippingShape();
+        clip.transform(AffineTransform.getTranslateInstance(100, 100));
+
+        assertEquals(new Rectangle2D.Double(2, 2, 4, 4), r.getClippingShape().getBounds2D());
+        assertEquals(new Rectangle2D.Double(2, 2, 4, 4), copy.getClippingShape().getBounds2D());
+    }
+
+}